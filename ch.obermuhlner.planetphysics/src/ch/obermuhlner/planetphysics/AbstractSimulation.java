@@ -0,0 +1,147 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+public abstract class AbstractSimulation implements Simulation {
+
+	protected boolean collisions = true;
+	
+	protected double gravity = BruteForceSimulation.GRAVITY;
+	
+	protected double weightLessThreshold = 0.0;
+	
+	protected final List<Planet> planets = new ArrayList<>();
+
+	protected final List<Planet> weightlessPlanets = new ArrayList<>();
+
+	protected final CollisionEventStream collisionEvents = new CollisionEventStream();
+
+	/**
+	 * The conserved quantities at the beginning of the last step, <code>null</code> if they have to be calculated by direct summation.
+	 */
+	protected ConservedQuantities conservedQuantities;
+
+	private double kineticEnergy;
+	private double potentialEnergy;
+	private double momentumX;
+	private double momentumY;
+	private double angularMomentum;
+
+	@Override
+	public void setGravity(double gravity) {
+		this.gravity = gravity;
+		conservedQuantities = null;
+	}
+	
+	@Override
+	public double getGravity() {
+		return gravity;
+	}
+	
+	@Override
+	public void setCollisions(boolean collisions) {
+		this.collisions = collisions;
+	}
+	
+	public void setWeightLessThreshold(double weightLessThreshold) {
+		this.weightLessThreshold = weightLessThreshold;
+	}
+	
+	@Override
+	public void clear() {
+		planets.clear();
+		weightlessPlanets.clear();
+		conservedQuantities = null;
+	}
+	
+	@Override
+	public void add(Planet planet) {
+		conservedQuantities = null;
+		if (planet.getMass() <= weightLessThreshold) {
+			weightlessPlanets.add(planet);
+		} else {
+			planets.add(planet);
+		}
+	}
+	
+	@Override
+	public void addAll(Collection<Planet> newPlanets) {
+		List<Planet> massive = new ArrayList<>(newPlanets.size());
+		List<Planet> weightless = new ArrayList<>(newPlanets.size());
+		for (Planet planet : newPlanets) {
+			if (planet.getMass() <= weightLessThreshold) {
+				weightless.add(planet);
+			} else {
+				massive.add(planet);
+			}
+		}
+		planets.addAll(massive);
+		weightlessPlanets.addAll(weightless);
+		conservedQuantities = null;
+	}
+	
+	@Override
+	public Collection<Planet> getPlanets() {
+		return Collections.unmodifiableCollection(planets);
+	}
+	
+	@Override
+	public Collection<Planet> getWeightlessPlanets() {
+		return Collections.unmodifiableCollection(weightlessPlanets);
+	}
+
+	@Override
+	public CollisionEventStream getCollisionEvents() {
+		return collisionEvents;
+	}
+
+	/**
+	 * Returns the conserved quantities of the state at the beginning of the last simulated step.
+	 * 
+	 * The subclasses accumulate the quantities in the same pass that calculates the gravity,
+	 * before the first step (or after planets were added) the quantities are calculated by direct summation.
+	 */
+	@Override
+	public ConservedQuantities getConservedQuantities() {
+		if (conservedQuantities == null) {
+			conservedQuantities = ConservedQuantities.calculate(planets, gravity);
+		}
+		return conservedQuantities;
+	}
+
+	protected void beginConservedQuantities() {
+		kineticEnergy = 0;
+		potentialEnergy = 0;
+		momentumX = 0;
+		momentumY = 0;
+		angularMomentum = 0;
+	}
+
+	protected void addConservedQuantities(double mass, double x, double y, double speedX, double speedY) {
+		kineticEnergy += 0.5 * mass * (speedX * speedX + speedY * speedY);
+		momentumX += mass * speedX;
+		momentumY += mass * speedY;
+		angularMomentum += mass * (x * speedY - y * speedX);
+	}
+
+	protected void addPotentialEnergy(double energy) {
+		potentialEnergy += energy;
+	}
+
+	protected void endConservedQuantities() {
+		conservedQuantities = new ConservedQuantities(kineticEnergy, potentialEnergy, momentumX, momentumY, angularMomentum);
+	}
+
+	protected static void removeDeleted(List<Planet> planets) {
+		Iterator<Planet> iterator = planets.iterator();
+		while (iterator.hasNext()) {
+			if (iterator.next().isDeleted()) {
+				iterator.remove();
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package ch.obermuhlner.planetphysics;
+
+/**
+ * Monitors the conserved quantities of a {@link Simulation} and adapts the time step
+ * so that the accumulated relative energy drift stays below a target.
+ *
+ * Every step may change the energy by a fraction of the drift budget that is left,
+ * so the time step shrinks while the drift approaches the target and grows again when it recedes.
+ * A drift that grows in every step can only be kept below the target by shrinking the time step
+ * down to the minimum time step.
+ *
+ * Energy changes in steps where the number of planets changed (collisions or added planets)
+ * are not counted as drift.
+ */
+public class AdaptiveTimeStep {
+
+	private static final double SAFETY_FACTOR = 0.9;
+	private static final double MIN_FACTOR = 0.5;
+	private static final double MAX_FACTOR = 1.2;
+	private static final double BUDGET_FRACTION = 0.1;
+
+	private double targetDrift = 1e-6;
+	private int order = 1;
+	private double minDeltaTime = 0.01;
+	private double maxDeltaTime = 5.0;
+
+	private double deltaTime;
+
+	private ConservedQuantities initial;
+	private ConservedQuantities current;
+	private int planetCount;
+	private double excludedEnergy;
+	private boolean planetCountChanged;
+
+	public AdaptiveTimeStep(double deltaTime) {
+		this.deltaTime = deltaTime;
+	}
+
+	/**
+	 * Sets the maximum accumulated relative energy drift since the last reset.
+	 *
+	 * @param targetDrift the target drift
+	 */
+	public void setTargetDrift(double targetDrift) {
+		this.targetDrift = targetDrift;
+	}
+
+	/**
+	 * Sets the order of the integrator of the simulation.
+	 *
+	 * The energy change of a single step is assumed to scale with the time step to the power of the order plus one,
+	 * the new time step is derived from the ratio of the budget to the last change with the inverse power.
+	 * The kick-drift integrators (for example {@link BruteForceSimulation}) are first order, the default,
+	 * {@link WisdomHolmanSimulation} is second order.
+	 *
+	 * @param order the order of the integrator
+	 */
+	public void setOrder(int order) {
+		this.order = Math.max(1, order);
+	}
+
+	public void setMinDeltaTime(double minDeltaTime) {
+		this.minDeltaTime = minDeltaTime;
+	}
+
+	public void setMaxDeltaTime(double maxDeltaTime) {
+		this.maxDeltaTime = maxDeltaTime;
+	}
+
+	public double getDeltaTime() {
+		return deltaTime;
+	}
+
+	public void setDeltaTime(double deltaTime) {
+		this.deltaTime = deltaTime;
+	}
+
+	/**
+	 * Starts monitoring with the current state of the simulation as reference.
+	 *
+	 * @param simulation the simulation
+	 */
+	public void reset(Simulation simulation) {
+		initial = simulation.getConservedQuantities();
+		current = initial;
+		planetCount = simulation.getPlanets().size();
+		excludedEnergy = 0;
+		planetCountChanged = false;
+	}
+
+	/**
+	 * Updates the monitored quantities after a simulated step and calculates the next time step.
+	 *
+	 * The first call after construction implicitly calls {@link #reset(Simulation)}.
+	 *
+	 * @param simulation the simulation
+	 * @return the time step to use for the next step
+	 */
+	public double update(Simulation simulation) {
+		if (initial == null) {
+			reset(simulation);
+			return deltaTime;
+		}
+
+		ConservedQuantities previous = current;
+		current = simulation.getConservedQuantities();
+		int previousPlanetCount = planetCount;
+		planetCount = simulation.getPlanets().size();
+
+		// the quantities may describe the state at the beginning of the step, so the step after a change is excluded as well
+		boolean changed = planetCount != previousPlanetCount;
+		if (changed || planetCountChanged) {
+			planetCountChanged = changed;
+			excludedEnergy += current.getEnergy() - previous.getEnergy();
+			return deltaTime;
+		}
+
+		double stepDrift = Math.abs(relativeToInitial(current.getEnergy() - previous.getEnergy()));
+		double budget = (targetDrift - Math.abs(getRelativeEnergyDrift())) * BUDGET_FRACTION;
+		double factor;
+		if (budget <= 0) {
+			factor = MIN_FACTOR;
+		} else if (stepDrift == 0) {
+			factor = MAX_FACTOR;
+		} else {
+			factor = SAFETY_FACTOR * Math.pow(budget / stepDrift, 1.0 / (order + 1));
+		}
+		factor = Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, factor));
+		deltaTime = Math.max(minDeltaTime, Math.min(maxDeltaTime, deltaTime * factor));
+		return deltaTime;
+	}
+
+	/**
+	 * Returns the relative energy drift since the last reset.
+	 *
+	 * @return the relative energy drift
+	 */
+	public double getRelativeEnergyDrift() {
+		if (initial == null) {
+			return 0;
+		}
+		return relativeToInitial(current.getEnergy() - excludedEnergy - initial.getEnergy());
+	}
+
+	private double relativeToInitial(double energy) {
+		double initialEnergy = initial.getEnergy();
+		return initialEnergy == 0 ? energy : energy / Math.abs(initialEnergy);
+	}
+
+	public ConservedQuantities getInitial() {
+		return initial;
+	}
+
+	public ConservedQuantities getCurrent() {
+		return current;
+	}
+}
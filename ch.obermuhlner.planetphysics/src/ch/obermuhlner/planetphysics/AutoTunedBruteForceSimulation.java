@@ -0,0 +1,250 @@
+package ch.obermuhlner.planetphysics;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * {@link BruteForceSimulation} that chooses its execution parameters with short calibration benchmarks.
+ *
+ * Profiles are stored per range of massive and weightless planet counts (powers of two) and number of cores.
+ * Before every step the simulation looks up the profile for the current planet counts,
+ * so the profile changes automatically when planets are added or merged.
+ * If no profile is known for the current range, the profile of the nearest known range is used.
+ * {@link #calibrate()} benchmarks the candidate profiles on copies of the current planets
+ * and stores the fastest profile in the profile file; call it at startup or on demand.
+ *
+ * Profiles only contain parameters that do not change the simulated results (see {@link BruteForceProfile}),
+ * so the trajectory does not depend on the machine or on the stored profiles.
+ * {@link #setSinglePrecisionWeightless(boolean) Single precision} is never chosen by the calibration,
+ * it is part of the profile key if it was enabled explicitly.
+ */
+public class AutoTunedBruteForceSimulation extends BruteForceSimulation {
+
+	private static final int[] CHUNK_SIZES = { 64, 256, 1024, 4096 };
+
+	private final File profileFile;
+	private final Properties profiles = new Properties();
+	private final int cores = Runtime.getRuntime().availableProcessors();
+
+	private boolean calibrateAutomatically = false;
+	private long calibrationMillis = 100;
+
+	private String currentKey;
+	private BruteForceProfile currentProfile;
+
+	/**
+	 * Creates a simulation that stores the profiles in <code>.planetphysics/bruteforce-profiles.properties</code> in the home directory.
+	 */
+	public AutoTunedBruteForceSimulation() {
+		this(new File(new File(System.getProperty("user.home"), ".planetphysics"), "bruteforce-profiles.properties"));
+	}
+
+	public AutoTunedBruteForceSimulation(File profileFile) {
+		this.profileFile = profileFile;
+		load();
+	}
+
+	/**
+	 * Sets whether unknown planet count ranges are calibrated at the beginning of the next step.
+	 *
+	 * Disabled by default, because the calibration benchmarks every candidate inside the step and stalls the simulation.
+	 * If disabled, unknown ranges use the profile of the nearest known range until {@link #calibrate()} is called.
+	 *
+	 * @param calibrateAutomatically <code>true</code> to calibrate automatically
+	 */
+	public void setCalibrateAutomatically(boolean calibrateAutomatically) {
+		this.calibrateAutomatically = calibrateAutomatically;
+	}
+
+	/**
+	 * Sets the approximate time used to benchmark a single candidate profile.
+	 *
+	 * @param calibrationMillis the time in milliseconds
+	 */
+	public void setCalibrationMillis(long calibrationMillis) {
+		this.calibrationMillis = calibrationMillis;
+	}
+
+	public BruteForceProfile getCurrentProfile() {
+		return currentProfile;
+	}
+
+	@Override
+	public void simulateStep(double deltaTime, int tailLength) {
+		String key = profileKey(planets.size(), weightlessPlanets.size());
+		if (!key.equals(currentKey)) {
+			String stored = profiles.getProperty(key);
+			if (stored != null) {
+				applyProfile(key, BruteForceProfile.parse(stored));
+			} else if (calibrateAutomatically) {
+				calibrate(deltaTime);
+			} else {
+				String nearest = findNearestProfile(planets.size(), weightlessPlanets.size());
+				if (nearest != null) {
+					applyProfile(key, BruteForceProfile.parse(nearest));
+				} else {
+					currentKey = key;
+				}
+			}
+		}
+
+		super.simulateStep(deltaTime, tailLength);
+	}
+
+	/**
+	 * Benchmarks the candidate profiles for the current planets with a time step of 1, applies and stores the fastest.
+	 *
+	 * @return the fastest profile
+	 */
+	public BruteForceProfile calibrate() {
+		return calibrate(1.0);
+	}
+
+	private BruteForceProfile calibrate(double deltaTime) {
+		List<Planet> massiveCopies = copy(getPlanets());
+		List<Planet> weightlessCopies = copy(getWeightlessPlanets());
+
+		BruteForceProfile fastest = null;
+		double fastestNanos = Double.MAX_VALUE;
+		for (BruteForceProfile candidate : createCandidates(massiveCopies.size(), weightlessCopies.size())) {
+			double nanos = benchmark(candidate, massiveCopies, weightlessCopies, deltaTime);
+			if (nanos < fastestNanos) {
+				fastestNanos = nanos;
+				fastest = candidate;
+			}
+		}
+
+		String key = profileKey(planets.size(), weightlessPlanets.size());
+		profiles.setProperty(key, fastest.toString());
+		save();
+		applyProfile(key, fastest);
+		return fastest;
+	}
+
+	private void applyProfile(String key, BruteForceProfile profile) {
+		profile.apply(this);
+		currentKey = key;
+		currentProfile = profile;
+	}
+
+	private List<BruteForceProfile> createCandidates(int massiveCount, int weightlessCount) {
+		List<BruteForceProfile> candidates = new ArrayList<>();
+		candidates.add(new BruteForceProfile(false, CHUNK_SIZES[0], 0));
+		if (cores > 1) {
+			int count = Math.max(massiveCount, weightlessCount);
+			for (int chunkSize : CHUNK_SIZES) {
+				if (count >= chunkSize * 2) {
+					candidates.add(new BruteForceProfile(true, chunkSize, 0));
+					candidates.add(new BruteForceProfile(true, chunkSize, cores));
+				}
+			}
+		}
+		return candidates;
+	}
+
+	private double benchmark(BruteForceProfile candidate, List<Planet> massive, List<Planet> weightless, double deltaTime) {
+		BruteForceSimulation simulation = new BruteForceSimulation();
+		simulation.setGravity(gravity);
+		simulation.setCollisions(collisions);
+		simulation.setWeightLessThreshold(weightLessThreshold);
+		simulation.setSinglePrecisionWeightless(isSinglePrecisionWeightless());
+		simulation.addAll(copy(massive));
+		simulation.addAll(copy(weightless));
+		candidate.apply(simulation);
+
+		try {
+			// the first step loads caches and compiles the code paths of the candidate
+			simulation.simulateStep(deltaTime, 0);
+
+			int steps = 0;
+			long startNanos = System.nanoTime();
+			long elapsedNanos;
+			do {
+				simulation.simulateStep(deltaTime, 0);
+				steps++;
+				elapsedNanos = System.nanoTime() - startNanos;
+			} while (elapsedNanos < calibrationMillis * 1_000_000L);
+			return (double) elapsedNanos / steps;
+		} finally {
+			simulation.setParallelism(0);
+		}
+	}
+
+	private static List<Planet> copy(Iterable<Planet> planets) {
+		List<Planet> copies = new ArrayList<>();
+		for (Planet planet : planets) {
+			copies.add(new Planet(planet.getName(), planet));
+		}
+		return copies;
+	}
+
+	private String profileKey(int massiveCount, int weightlessCount) {
+		String key = "massive" + countRange(massiveCount) + ".weightless" + countRange(weightlessCount) + ".cores" + cores;
+		return isSinglePrecisionWeightless() ? key + ".singlePrecision" : key;
+	}
+
+	private String findNearestProfile(int massiveCount, int weightlessCount) {
+		String currentRangeKey = profileKey(massiveCount, weightlessCount);
+		String suffix = currentRangeKey.substring(currentRangeKey.indexOf(".cores"));
+		int massiveRange = countRange(massiveCount);
+		int weightlessRange = countRange(weightlessCount);
+
+		String nearestKey = null;
+		int nearestDistance = Integer.MAX_VALUE;
+		for (String key : profiles.stringPropertyNames()) {
+			if (!key.endsWith(suffix)) {
+				continue;
+			}
+			String[] ranges = key.substring(0, key.length() - suffix.length()).split("\\.");
+			if (ranges.length != 2 || !ranges[0].startsWith("massive") || !ranges[1].startsWith("weightless")) {
+				continue;
+			}
+			try {
+				int distance = Math.abs(Integer.parseInt(ranges[0].substring("massive".length())) - massiveRange)
+						+ Math.abs(Integer.parseInt(ranges[1].substring("weightless".length())) - weightlessRange);
+				if (distance < nearestDistance || (distance == nearestDistance && key.compareTo(nearestKey) < 0)) {
+					nearestDistance = distance;
+					nearestKey = key;
+				}
+			} catch (NumberFormatException e) {
+				// not a profile key
+			}
+		}
+		return nearestKey == null ? null : profiles.getProperty(nearestKey);
+	}
+
+	private static int countRange(int count) {
+		return 32 - Integer.numberOfLeadingZeros(count);
+	}
+
+	private void load() {
+		if (!profileFile.isFile()) {
+			return;
+		}
+		try (InputStream in = new FileInputStream(profileFile)) {
+			profiles.load(in);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void save() {
+		File directory = profileFile.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new UncheckedIOException(new IOException("Cannot create directory " + directory));
+		}
+		try (OutputStream out = new FileOutputStream(profileFile)) {
+			profiles.store(out, "BruteForceSimulation profiles per range of massive and weightless planets (log2) and cores");
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Execution parameters of a {@link BruteForceSimulation} that do not change the simulated results.
+ *
+ * Settings that change the results, like {@link BruteForceSimulation#setSinglePrecisionWeightless(boolean) single precision},
+ * are not part of a profile and must be chosen explicitly.
+ */
+public class BruteForceProfile {
+
+	public final boolean parallel;
+	public final int chunkSize;
+	public final int parallelism;
+
+	/**
+	 * Creates a profile.
+	 *
+	 * @param parallel whether the planets are calculated in parallel, see {@link BruteForceSimulation#setParallelThreshold(int)}
+	 * @param chunkSize see {@link BruteForceSimulation#setChunkSize(int)}
+	 * @param parallelism see {@link BruteForceSimulation#setParallelism(int)}
+	 */
+	public BruteForceProfile(boolean parallel, int chunkSize, int parallelism) {
+		this.parallel = parallel;
+		this.chunkSize = chunkSize;
+		this.parallelism = parallelism;
+	}
+
+	public void apply(BruteForceSimulation simulation) {
+		simulation.setParallelThreshold(parallel ? 0 : Integer.MAX_VALUE);
+		simulation.setChunkSize(chunkSize);
+		simulation.setParallelism(parallelism);
+	}
+
+	/**
+	 * Parses a profile written by {@link #toString()}.
+	 *
+	 * Unknown keys are ignored.
+	 *
+	 * @param text the text to parse
+	 * @return the parsed profile
+	 * @throws IllegalArgumentException if the text is not a valid profile
+	 */
+	public static BruteForceProfile parse(String text) {
+		Map<String, String> values = new HashMap<>();
+		for (String entry : text.split(",")) {
+			String[] keyValue = entry.trim().split("=", 2);
+			if (keyValue.length != 2) {
+				throw new IllegalArgumentException("Invalid profile: " + text);
+			}
+			values.put(keyValue[0], keyValue[1]);
+		}
+		try {
+			return new BruteForceProfile(
+					Boolean.parseBoolean(values.get("parallel")),
+					Integer.parseInt(values.get("chunkSize")),
+					Integer.parseInt(values.get("parallelism")));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid profile: " + text, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "parallel=" + parallel
+				+ ",chunkSize=" + chunkSize
+				+ ",parallelism=" + parallelism;
+	}
+}
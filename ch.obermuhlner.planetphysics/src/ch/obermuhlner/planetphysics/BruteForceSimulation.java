@@ -1,98 +1,289 @@
 package ch.obermuhlner.planetphysics;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
+import ch.obermuhlner.planetphysics.math.MutableVector2;
 import ch.obermuhlner.planetphysics.math.Vector2;
 
-public class BruteForceSimulation implements Simulation {
+public class BruteForceSimulation extends AbstractSimulation {
 
 	public static final double GRAVITY = 10.0;
 
-	private boolean collisions = true;
-	
-	private double weightLessThreshold = 0.0;
-	
-	private final List<Planet> planets = new ArrayList<>();
+	private SinglePrecisionParticles singlePrecisionParticles;
+	private int reorderInterval;
+	private int stepsSinceReorder;
 
-	private final List<Planet> weightlessPlanets = new ArrayList<>();
+	private int parallelThreshold = Integer.MAX_VALUE;
+	private int chunkSize = 1024;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
 
-	public void setCollisions(boolean collisions) {
-		this.collisions = collisions;
+	private double[] accelerationX = new double[0];
+	private double[] accelerationY = new double[0];
+	private double[] potentials = new double[0];
+
+	/**
+	 * Sets whether the weightless planets are simulated with single precision <code>float</code> state.
+	 * 
+	 * This halves the memory bandwidth for large numbers of weightless planets,
+	 * the massive planets are always simulated with double precision.
+	 * 
+	 * @param singlePrecisionWeightless <code>true</code> to use single precision for weightless planets
+	 */
+	public void setSinglePrecisionWeightless(boolean singlePrecisionWeightless) {
+		if (singlePrecisionParticles != null) {
+			singlePrecisionParticles.invalidate();
+		}
+		singlePrecisionParticles = singlePrecisionWeightless ? new SinglePrecisionParticles(weightlessPlanets) : null;
 	}
-	
-	public void setWeightLessThreshold(double weightLessThreshold) {
-		this.weightLessThreshold = weightLessThreshold;
+
+	/**
+	 * Sets the number of steps after which the {@link #setSinglePrecisionWeightless(boolean) single precision} weightless planets
+	 * are sorted in Morton order of their position.
+	 * 
+	 * The <code>float</code> state and the list of weightless planets are sorted together,
+	 * the planet instances are not changed.
+	 * 
+	 * @param reorderInterval the number of steps, 0 to disable reordering
+	 */
+	public void setReorderInterval(int reorderInterval) {
+		this.reorderInterval = reorderInterval;
 	}
-	
+
+	/**
+	 * Sets the number of planets from which on the gravity is calculated in parallel chunks.
+	 * 
+	 * The threshold applies separately to the pass over the massive planets and to the pass over the weightless planets.
+	 * If a planet of a parallel pass collides, the pass is discarded and repeated sequentially,
+	 * so the results are the same as with sequential calculation.
+	 * Ignored for {@link #setSinglePrecisionWeightless(boolean) single precision} weightless planets.
+	 * 
+	 * @param parallelThreshold the minimum number of planets, {@link Integer#MAX_VALUE} to always calculate sequentially
+	 */
+	public void setParallelThreshold(int parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	public int getParallelThreshold() {
+		return parallelThreshold;
+	}
+
+	/**
+	 * Sets the number of planets that are calculated as one parallel task.
+	 * 
+	 * @param chunkSize the number of planets per task
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Sets the number of threads of the parallel pass.
+	 * 
+	 * @param parallelism the number of threads, 0 to use the common pool
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism == getParallelism()) {
+			return;
+		}
+		if (pool != ForkJoinPool.commonPool()) {
+			pool.shutdown();
+		}
+		pool = parallelism <= 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(parallelism);
+	}
+
+	public int getParallelism() {
+		return pool == ForkJoinPool.commonPool() ? 0 : pool.getParallelism();
+	}
+
+	public boolean isSinglePrecisionWeightless() {
+		return singlePrecisionParticles != null;
+	}
+
 	@Override
 	public void clear() {
-		planets.clear();
-		weightlessPlanets.clear();
+		if (singlePrecisionParticles != null) {
+			singlePrecisionParticles.invalidate();
+		}
+		super.clear();
 	}
-	
+
 	@Override
 	public void add(Planet planet) {
-		if (planet.getMass() <= weightLessThreshold) {
-			weightlessPlanets.add(planet);
-		} else {
-			planets.add(planet);
+		if (singlePrecisionParticles != null) {
+			singlePrecisionParticles.invalidate();
 		}
+		super.add(planet);
 	}
-	
+
 	@Override
-	public Collection<Planet> getPlanets() {
-		return Collections.unmodifiableCollection(planets);
+	public void addAll(Collection<Planet> newPlanets) {
+		if (singlePrecisionParticles != null) {
+			singlePrecisionParticles.invalidate();
+		}
+		super.addAll(newPlanets);
 	}
-	
+
 	@Override
 	public Collection<Planet> getWeightlessPlanets() {
-		return Collections.unmodifiableCollection(weightlessPlanets);
+		if (singlePrecisionParticles != null) {
+			singlePrecisionParticles.sync();
+		}
+		return super.getWeightlessPlanets();
 	}
 
 	@Override
 	public void simulateStep(double deltaTime, int tailLength) {
-		for (Planet planet : planets) {
-			calculateGravity(planet, deltaTime);
+		collisionEvents.nextStep();
+
+		beginConservedQuantities();
+		if (planets.size() < parallelThreshold || !calculateGravityParallel(planets, deltaTime, true)) {
+			for (Planet planet : planets) {
+				calculateGravity(planet, deltaTime, true);
+			}
 		}
-		for (Planet planet : weightlessPlanets) {
-			calculateGravity(planet, deltaTime);
+		endConservedQuantities();
+
+		if (singlePrecisionParticles != null) {
+			if (reorderInterval > 0 && ++stepsSinceReorder >= reorderInterval) {
+				stepsSinceReorder = 0;
+				singlePrecisionParticles.reorder();
+			}
+			singlePrecisionParticles.simulateStep(planets, gravity, collisions, collisionEvents, deltaTime, tailLength);
+		} else if (weightlessPlanets.size() < parallelThreshold || !calculateGravityParallel(weightlessPlanets, deltaTime, false)) {
+			for (Planet planet : weightlessPlanets) {
+				calculateGravity(planet, deltaTime, false);
+			}
 		}
 		
 		updateSpeed(planets, deltaTime, tailLength);
-		updateSpeed(weightlessPlanets, deltaTime, tailLength);
+		if (singlePrecisionParticles == null) {
+			updateSpeed(weightlessPlanets, deltaTime, tailLength);
+		}
 	}
 	
-	private void calculateGravity(Planet planet, double deltaTime) {
+	private void calculateGravity(Planet planet, double deltaTime, boolean conserved) {
 		if (planet.isDeleted()) {
 			return;
 		}
 		
-		Vector2 totalForce = planets.stream()
-				.map(other -> {
-					if (other != planet && !other.isDeleted()) {
-						Vector2 delta = planet.getPosition().subtract(other.getPosition());
-						double distance = delta.getLength();
-						if (collisions && distance < planet.getRadius() + other.getRadius()) {
-							if (planet.getMass() == 0.0) {
-								other.merge(planet);
-							} else {
-								planet.merge(other);
-							}
-						} else {
-							double magnitude = -GRAVITY * other.getMass() / (distance * distance);
-							Vector2 force = delta.normalize().multiply(magnitude);
-							return force;
-						}
+		Vector2 position = planet.getPosition();
+		Vector2 speed = planet.getSpeed();
+		double potential = 0;
+		MutableVector2 totalForce = new MutableVector2();
+		for (Planet other : planets) {
+			if (other != planet && !other.isDeleted()) {
+				double deltaX = position.x - other.getPosition().x;
+				double deltaY = position.y - other.getPosition().y;
+				double distance = Math.sqrt(deltaX*deltaX + deltaY*deltaY);
+				if (collisions && distance < planet.getRadius() + other.getRadius()) {
+					if (planet.getMass() == 0.0) {
+						collisionEvents.merge(other, planet);
+					} else {
+						collisionEvents.merge(planet, other);
 					}
-					return Vector2.ZERO;
-				})
-				.reduce(Vector2.ZERO, (accu, value) -> accu.add(value));
+				} else {
+					double magnitude = -gravity * other.getMass() / (distance * distance * distance);
+					totalForce.addScaled(deltaX, deltaY, magnitude);
+					potential += magnitude * distance * distance;
+				}
+			}
+		}
+
+		if (conserved) {
+			// every pair is visited twice
+			addConservedQuantities(planet.getMass(), position.x, position.y, speed.x, speed.y);
+			addPotentialEnergy(0.5 * planet.getMass() * potential);
+		}
 		
-		planet.setSpeed(planet.getSpeed().add(totalForce.multiply(deltaTime)));
+		planet.setSpeed(planet.getSpeed().addScaled(totalForce.x, totalForce.y, deltaTime));
+	}
+
+	/**
+	 * Calculates the gravity of the massive planets on the target planets in parallel chunks.
+	 * 
+	 * The speeds are only changed if no target planet collides,
+	 * every planet sums the same terms in the same order as in {@link #calculateGravity(Planet, double, boolean)}.
+	 * 
+	 * @return <code>true</code> if the speeds were updated, <code>false</code> if a collision was found and no planet was changed
+	 */
+	private boolean calculateGravityParallel(List<Planet> targets, double deltaTime, boolean conserved) {
+		int count = targets.size();
+		if (accelerationX.length < count) {
+			accelerationX = new double[count];
+			accelerationY = new double[count];
+			potentials = new double[count];
+		}
+
+		int chunkCount = (count + chunkSize - 1) / chunkSize;
+		boolean collided = pool.submit(() -> IntStream.range(0, chunkCount).parallel()
+				.anyMatch(chunk -> {
+					for (int i = chunk * chunkSize; i < Math.min(count, (chunk + 1) * chunkSize); i++) {
+						if (!calculateAcceleration(targets.get(i), i)) {
+							return true;
+						}
+					}
+					return false;
+				})).join();
+		if (collided) {
+			return false;
+		}
+
+		for (int i = 0; i < count; i++) {
+			Planet planet = targets.get(i);
+			if (planet.isDeleted()) {
+				continue;
+			}
+			Vector2 speed = planet.getSpeed();
+			if (conserved) {
+				Vector2 position = planet.getPosition();
+				addConservedQuantities(planet.getMass(), position.x, position.y, speed.x, speed.y);
+				addPotentialEnergy(0.5 * planet.getMass() * potentials[i]);
+			}
+			planet.setSpeed(speed.addScaled(accelerationX[i], accelerationY[i], deltaTime));
+		}
+		return true;
+	}
+
+	/**
+	 * Calculates the acceleration of a planet by the massive planets into the arrays without modifying any planet.
+	 * 
+	 * @return <code>false</code> if the planet collides with a massive planet
+	 */
+	private boolean calculateAcceleration(Planet planet, int index) {
+		if (planet.isDeleted()) {
+			return true;
+		}
+
+		Vector2 position = planet.getPosition();
+		double forceX = 0;
+		double forceY = 0;
+		double potential = 0;
+		for (Planet other : planets) {
+			if (other != planet && !other.isDeleted()) {
+				double deltaX = position.x - other.getPosition().x;
+				double deltaY = position.y - other.getPosition().y;
+				double distance = Math.sqrt(deltaX*deltaX + deltaY*deltaY);
+				if (collisions && distance < planet.getRadius() + other.getRadius()) {
+					return false;
+				}
+				double magnitude = -gravity * other.getMass() / (distance * distance * distance);
+				forceX += deltaX * magnitude;
+				forceY += deltaY * magnitude;
+				potential += magnitude * distance * distance;
+			}
+		}
+		accelerationX[index] = forceX;
+		accelerationY[index] = forceY;
+		potentials[index] = potential;
+		return true;
 	}
 
 	private void updateSpeed(List<Planet> planets, double deltaTime, int tailLength) {
@@ -103,7 +294,7 @@ public class BruteForceSimulation implements Simulation {
 			if (planet.isDeleted()) {
 				iterator.remove();
 			} else {
-				planet.setPosition(planet.getPosition().add(planet.getSpeed().multiply(deltaTime)), tailLength);
+				planet.setPosition(planet.getPosition().addScaled(planet.getSpeed(), deltaTime), tailLength);
 			}
 		}
 	}
@@ -0,0 +1,33 @@
+package ch.obermuhlner.planetphysics;
+
+/**
+ * A planet was absorbed by another planet.
+ *
+ * The masses are the masses before the merge, the survivor has the sum of both masses after the merge.
+ */
+public class CollisionEvent {
+
+	public final long step;
+	public final Planet survivor;
+	public final Planet absorbed;
+	public final double survivorMass;
+	public final double absorbedMass;
+	public final double x;
+	public final double y;
+
+	public CollisionEvent(long step, Planet survivor, Planet absorbed, double survivorMass, double absorbedMass, double x, double y) {
+		this.step = step;
+		this.survivor = survivor;
+		this.absorbed = absorbed;
+		this.survivorMass = survivorMass;
+		this.absorbedMass = absorbedMass;
+		this.x = x;
+		this.y = y;
+	}
+
+	@Override
+	public String toString() {
+		return "CollisionEvent [step=" + step + ", survivor=" + survivor.getName() + ", absorbed=" + absorbed.getName()
+				+ ", survivorMass=" + survivorMass + ", absorbedMass=" + absorbedMass + ", x=" + x + ", y=" + y + "]";
+	}
+}
@@ -0,0 +1,160 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free ring buffer of {@link CollisionEvent}s for one subscriber of a {@link CollisionEventStream}.
+ *
+ * Any number of threads may publish and consume concurrently.
+ * Every slot carries a sequence number that tells producers and consumers whether the slot is free or filled,
+ * so both sides only need a compare-and-set on their own position counter.
+ *
+ * When the buffer is full the {@link OverflowPolicy} decides which event is lost, lost events are counted.
+ */
+public class CollisionEventBuffer {
+
+	public enum OverflowPolicy {
+		/**
+		 * The new event is dropped, the buffer keeps the oldest events.
+		 */
+		DROP_NEWEST,
+		/**
+		 * The oldest event is dropped to make room for the new event.
+		 */
+		DROP_OLDEST
+	}
+
+	private final int mask;
+	private final AtomicReferenceArray<CollisionEvent> events;
+	private final AtomicLongArray sequences;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final OverflowPolicy overflowPolicy;
+
+	/**
+	 * Creates a buffer.
+	 *
+	 * @param capacity the minimum capacity, rounded up to the next power of two
+	 * @param overflowPolicy the policy if the buffer is full
+	 */
+	public CollisionEventBuffer(int capacity, OverflowPolicy overflowPolicy) {
+		if (capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Capacity must be between 1 and 2^30: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.events = new AtomicReferenceArray<>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * Returns the number of events that were lost because the buffer was full.
+	 *
+	 * @return the number of lost events
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	/**
+	 * Publishes an event, never blocks.
+	 *
+	 * @param event the event
+	 * @return <code>true</code> if the event was added, <code>false</code> if it was dropped
+	 */
+	public boolean offer(CollisionEvent event) {
+		while (!tryOffer(event)) {
+			if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+				dropped.incrementAndGet();
+				return false;
+			}
+			if (poll() != null) {
+				dropped.incrementAndGet();
+			}
+		}
+		return true;
+	}
+
+	private boolean tryOffer(CollisionEvent event) {
+		while (true) {
+			long position = tail.get();
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					events.set(index, event);
+					sequences.set(index, position + 1);
+					return true;
+				}
+			} else if (difference < 0) {
+				// the slot still contains the event of the previous round
+				return false;
+			}
+			// another producer claimed the slot, retry with the new tail
+		}
+	}
+
+	/**
+	 * Removes the oldest event, never blocks.
+	 *
+	 * @return the oldest event or <code>null</code> if the buffer is empty
+	 */
+	public CollisionEvent poll() {
+		while (true) {
+			long position = head.get();
+			int index = (int) position & mask;
+			long difference = sequences.get(index) - (position + 1);
+			if (difference == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					CollisionEvent event = events.get(index);
+					events.set(index, null);
+					sequences.set(index, position + mask + 1);
+					return event;
+				}
+			} else if (difference < 0) {
+				// the slot was not yet filled
+				return null;
+			}
+			// another consumer took the slot, retry with the new head
+		}
+	}
+
+	/**
+	 * Removes all available events and passes them to the consumer.
+	 *
+	 * @param consumer the consumer
+	 * @return the number of consumed events
+	 */
+	public int drainTo(Consumer<CollisionEvent> consumer) {
+		int count = 0;
+		CollisionEvent event;
+		while ((event = poll()) != null) {
+			consumer.accept(event);
+			count++;
+		}
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+}
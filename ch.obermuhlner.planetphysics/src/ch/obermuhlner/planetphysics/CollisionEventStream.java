@@ -0,0 +1,120 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ch.obermuhlner.planetphysics.CollisionEventBuffer.OverflowPolicy;
+
+/**
+ * Publishes the merges of the planets of a simulation to subscribers.
+ *
+ * Every subscriber gets its own {@link CollisionEventBuffer}, the simulation never waits for a subscriber.
+ * Without subscribers no events are created.
+ *
+ * The step of an event is the number of the simulated step in which the collision happened, counting from 1.
+ *
+ * The merges are counted even without subscribers.
+ */
+public class CollisionEventStream {
+
+	private final List<CollisionEventBuffer> subscribers = new CopyOnWriteArrayList<>();
+
+	private volatile long step;
+	private volatile long mergeCount;
+	private volatile boolean suspended;
+
+	/**
+	 * Subscribes to the events published from now on.
+	 *
+	 * @param capacity the capacity of the buffer
+	 * @param overflowPolicy the policy if the subscriber does not consume the events fast enough
+	 * @return the buffer that receives the events
+	 */
+	public CollisionEventBuffer subscribe(int capacity, OverflowPolicy overflowPolicy) {
+		CollisionEventBuffer buffer = new CollisionEventBuffer(capacity, overflowPolicy);
+		subscribers.add(buffer);
+		return buffer;
+	}
+
+	public void unsubscribe(CollisionEventBuffer buffer) {
+		subscribers.remove(buffer);
+	}
+
+	public boolean hasSubscribers() {
+		return !subscribers.isEmpty();
+	}
+
+	/**
+	 * Starts the next simulated step, called by the simulation.
+	 */
+	public void nextStep() {
+		step++;
+	}
+
+	public long getStep() {
+		return step;
+	}
+
+	/**
+	 * Returns the number of merges since the creation of the stream or the last {@link #setMergeCount(long)}.
+	 *
+	 * @return the number of merges
+	 */
+	public long getMergeCount() {
+		return mergeCount;
+	}
+
+	public void setMergeCount(long mergeCount) {
+		this.mergeCount = mergeCount;
+	}
+
+	/**
+	 * Suspends or resumes publishing the events.
+	 *
+	 * While suspended the merges are applied and counted but not published,
+	 * for example while replaying steps whose events were already published.
+	 *
+	 * @param suspended <code>true</code> to suspend publishing
+	 */
+	public void setSuspended(boolean suspended) {
+		this.suspended = suspended;
+	}
+
+	public boolean isSuspended() {
+		return suspended;
+	}
+
+	/**
+	 * Merges the absorbed planet into the survivor and publishes the event in the current step.
+	 *
+	 * @param survivor the surviving planet
+	 * @param absorbed the absorbed planet
+	 */
+	public void merge(Planet survivor, Planet absorbed) {
+		merge(survivor, absorbed, step);
+	}
+
+	/**
+	 * Merges the absorbed planet into the survivor and publishes the event in the specified step.
+	 *
+	 * @param survivor the surviving planet
+	 * @param absorbed the absorbed planet
+	 * @param eventStep the step of the event
+	 */
+	public void merge(Planet survivor, Planet absorbed, long eventStep) {
+		mergeCount++;
+		if (suspended || subscribers.isEmpty()) {
+			survivor.merge(absorbed);
+			return;
+		}
+
+		double survivorMass = survivor.getMass();
+		double absorbedMass = absorbed.getMass();
+		survivor.merge(absorbed);
+
+		CollisionEvent event = new CollisionEvent(eventStep, survivor, absorbed, survivorMass, absorbedMass, survivor.getPosition().x, survivor.getPosition().y);
+		for (CollisionEventBuffer subscriber : subscribers) {
+			subscriber.offer(event);
+		}
+	}
+}
@@ -0,0 +1,413 @@
+package ch.obermuhlner.planetphysics;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.DoubleFunction;
+import java.util.function.Supplier;
+
+/**
+ * Compares the accuracy and the cost of simulation configurations against a high-precision reference configuration.
+ *
+ * Every configuration simulates copies of the same initial planets for the same simulated time.
+ * The final positions are compared with the reference planet by planet and the final energy with the reference energy,
+ * the cost is the wall-clock time of the simulated steps.
+ * Short runs are repeated and the fastest repetition is used, because single runs below a few milliseconds are dominated by noise.
+ *
+ * The planets are identified by their index in the initial planets.
+ * After a merge the survivor keeps the identity of the heavier planet, the lighter planet is missing from the final state.
+ * Planets that exist only in the reference or only in the candidate are counted as unmatched.
+ *
+ * The reference must be more accurate than the candidates, otherwise a candidate with a higher order integrator
+ * is penalized for the error of the reference. {@link #convergeReference(DoubleFunction, double, double, double, int)}
+ * finds a reference time step that is converged within an error budget.
+ */
+public class ConfigurationComparator {
+
+	private static final int WARMUP_STEPS = 10;
+
+	private final List<Planet> initialPlanets;
+	private final double duration;
+
+	private long minMeasureMillis = 200;
+	private int maxRepetitions = 10;
+
+	private Configuration convergedReference;
+	private Run convergedReferenceRun;
+
+	/**
+	 * Creates a comparator.
+	 *
+	 * @param initialPlanets the initial planets, every configuration simulates its own copies
+	 * @param duration the simulated time
+	 */
+	public ConfigurationComparator(Collection<Planet> initialPlanets, double duration) {
+		this.initialPlanets = new ArrayList<>(initialPlanets);
+		this.duration = duration;
+	}
+
+	/**
+	 * Sets how long a configuration is repeated to measure its wall-clock time.
+	 *
+	 * @param minMeasureMillis the minimum total wall-clock time of the repetitions in milliseconds
+	 * @param maxRepetitions the maximum number of repetitions
+	 */
+	public void setMeasurement(long minMeasureMillis, int maxRepetitions) {
+		this.minMeasureMillis = minMeasureMillis;
+		this.maxRepetitions = Math.max(1, maxRepetitions);
+	}
+
+	/**
+	 * Runs the reference configuration and all candidates sequentially and compares them.
+	 *
+	 * The runs are sequential so that the measured wall-clock times do not influence each other.
+	 *
+	 * @param reference the high-precision reference configuration
+	 * @param candidates the candidate configurations
+	 * @return the results of the candidates in the order of the candidates
+	 */
+	public List<Result> compare(Configuration reference, List<Configuration> candidates) {
+		Run referenceRun = reference == convergedReference ? convergedReferenceRun : runReference(reference);
+
+		List<Result> results = new ArrayList<>();
+		for (Configuration candidate : candidates) {
+			results.add(compare(candidate, run(candidate, true), referenceRun));
+		}
+		return results;
+	}
+
+	/**
+	 * Halves the time step of the reference until halving it changes the result by less than the error budget.
+	 *
+	 * The change of the last halving estimates the error of the finer reference.
+	 * The run of the returned configuration is reused by the next {@link #compare(Configuration, List)} with this configuration.
+	 *
+	 * @param reference creates the reference configuration for a time step
+	 * @param deltaTime the initial time step of the reference
+	 * @param maxPositionError the maximum root mean square position change of the last halving
+	 * @param maxEnergyError the maximum relative energy change of the last halving
+	 * @param maxHalvings the maximum number of halvings
+	 * @return the converged reference configuration
+	 * @throws IllegalStateException if a reference run fails or the reference does not converge within the maximum number of halvings
+	 */
+	public Configuration convergeReference(DoubleFunction<Configuration> reference, double deltaTime, double maxPositionError, double maxEnergyError, int maxHalvings) {
+		Configuration coarse = reference.apply(deltaTime);
+		Run coarseRun = runReference(coarse);
+		Result change = null;
+		for (int halving = 0; halving < maxHalvings; halving++) {
+			deltaTime /= 2;
+			Configuration fine = reference.apply(deltaTime);
+			Run fineRun = runReference(fine);
+			change = compare(coarse, coarseRun, fineRun);
+			if (change.positionError <= maxPositionError && change.energyError <= maxEnergyError && change.unmatchedPlanets == 0) {
+				convergedReference = fine;
+				convergedReferenceRun = fineRun;
+				return fine;
+			}
+			coarse = fine;
+			coarseRun = fineRun;
+		}
+		throw new IllegalStateException("Reference did not converge after " + maxHalvings + " halvings, last change: " + change);
+	}
+
+	private Run runReference(Configuration reference) {
+		Run run = run(reference, false);
+		if (run.error != null) {
+			throw new IllegalStateException("Reference configuration " + reference.name + " failed: " + run.error);
+		}
+		return run;
+	}
+
+	private Result compare(Configuration configuration, Run run, Run reference) {
+		if (run.error != null) {
+			return new Result(configuration, run.steps, run.wallTimeMillis, Double.NaN, Double.NaN, Double.NaN, -1, run.error);
+		}
+
+		double sumDistanceSquared = 0;
+		double maxDistance = 0;
+		int matched = 0;
+		for (Map.Entry<String, Planet> entry : run.planets.entrySet()) {
+			Planet referencePlanet = reference.planets.get(entry.getKey());
+			if (referencePlanet != null) {
+				double distanceSquared = entry.getValue().getPosition().distanceSquared(referencePlanet.getPosition());
+				sumDistanceSquared += distanceSquared;
+				maxDistance = Math.max(maxDistance, Math.sqrt(distanceSquared));
+				matched++;
+			}
+		}
+		double positionError = matched == 0 ? 0 : Math.sqrt(sumDistanceSquared / matched);
+		int unmatched = run.planets.size() - matched + reference.planets.size() - matched;
+
+		double initialEnergy = reference.initial.getEnergy();
+		double energyDifference = Math.abs(run.end.getEnergy() - reference.end.getEnergy());
+		double energyError = initialEnergy == 0 ? energyDifference : energyDifference / Math.abs(initialEnergy);
+
+		return new Result(configuration, run.steps, run.wallTimeMillis, positionError, maxDistance, energyError, unmatched, null);
+	}
+
+	private Run run(Configuration configuration, boolean measure) {
+		Run run = new Run();
+		try {
+			if (measure) {
+				warmup(configuration);
+			}
+
+			Simulation simulation = null;
+			double totalMillis = 0;
+			int repetitions = measure ? maxRepetitions : 1;
+			run.wallTimeMillis = Double.MAX_VALUE;
+			for (int repetition = 0; repetition < repetitions && totalMillis < minMeasureMillis; repetition++) {
+				simulation = createSimulation(configuration);
+				run.initial = ConservedQuantities.calculate(simulation);
+
+				long startNanos = System.nanoTime();
+				if (configuration.targetDrift > 0) {
+					run.steps = simulateAdaptive(simulation, configuration);
+				} else {
+					run.steps = simulateFixed(simulation, configuration.deltaTime, duration);
+				}
+				double millis = (System.nanoTime() - startNanos) / 1_000_000.0;
+				run.wallTimeMillis = Math.min(run.wallTimeMillis, millis);
+				totalMillis += millis;
+			}
+
+			run.end = ConservedQuantities.calculate(simulation);
+			addPlanets(run.planets, simulation.getPlanets());
+			addPlanets(run.planets, simulation.getWeightlessPlanets());
+		} catch (RuntimeException e) {
+			run.error = e.toString();
+		}
+		return run;
+	}
+
+	private void warmup(Configuration configuration) {
+		// compiles the code paths of the configuration so that the first measured configuration is not penalized
+		Simulation simulation = createSimulation(configuration);
+		simulateFixed(simulation, configuration.deltaTime, Math.min(duration, WARMUP_STEPS * configuration.deltaTime));
+	}
+
+	private Simulation createSimulation(Configuration configuration) {
+		Simulation simulation = configuration.simulationFactory.get();
+		for (int i = 0; i < initialPlanets.size(); i++) {
+			simulation.add(new Planet(String.valueOf(i), initialPlanets.get(i)));
+		}
+		return simulation;
+	}
+
+	private static long simulateFixed(Simulation simulation, double deltaTime, double time) {
+		long steps = (long) Math.floor(time / deltaTime + 1e-9);
+		long remaining = steps;
+		while (remaining > 0) {
+			int count = (int) Math.min(remaining, Integer.MAX_VALUE);
+			simulation.simulateSteps(count, deltaTime, 0);
+			remaining -= count;
+		}
+
+		double rest = time - steps * deltaTime;
+		if (rest > 1e-9 * time) {
+			simulation.simulateStep(rest, 0);
+			steps++;
+		}
+		return steps;
+	}
+
+	private long simulateAdaptive(Simulation simulation, Configuration configuration) {
+		AdaptiveTimeStep adaptiveTimeStep = new AdaptiveTimeStep(configuration.deltaTime);
+		adaptiveTimeStep.setTargetDrift(configuration.targetDrift);
+		adaptiveTimeStep.reset(simulation);
+
+		long steps = 0;
+		double time = 0;
+		while (time < duration * (1 - 1e-9)) {
+			double deltaTime = Math.min(adaptiveTimeStep.getDeltaTime(), duration - time);
+			simulation.simulateStep(deltaTime, 0);
+			adaptiveTimeStep.update(simulation);
+			time += deltaTime;
+			steps++;
+		}
+		return steps;
+	}
+
+	private static void addPlanets(Map<String, Planet> planets, Collection<Planet> simulationPlanets) {
+		for (Planet planet : simulationPlanets) {
+			if (planet.getName() != null) {
+				planets.put(planet.getName(), planet);
+			}
+		}
+	}
+
+	/**
+	 * Returns the results that are not dominated by another result.
+	 *
+	 * A result dominates another if it is not worse in wall-clock time, position error, energy error and unmatched planets
+	 * and better in at least one of them. Failed results are never part of the frontier.
+	 *
+	 * @param results the results
+	 * @return the Pareto frontier sorted by wall-clock time
+	 */
+	public static List<Result> paretoFrontier(List<Result> results) {
+		List<Result> frontier = new ArrayList<>();
+		for (Result result : results) {
+			if (result.error != null) {
+				continue;
+			}
+			boolean dominated = false;
+			for (Result other : results) {
+				if (other != result && other.error == null && other.dominates(result)) {
+					dominated = true;
+					break;
+				}
+			}
+			if (!dominated) {
+				frontier.add(result);
+			}
+		}
+		frontier.sort(Comparator.comparingDouble(result -> result.wallTimeMillis));
+		return frontier;
+	}
+
+	/**
+	 * Returns the cheapest result that meets the error budget.
+	 *
+	 * @param results the results
+	 * @param maxPositionError the maximum root mean square position error
+	 * @param maxEnergyError the maximum relative energy error
+	 * @return the cheapest result within the budget or <code>null</code> if no result meets the budget
+	 */
+	public static Result cheapest(List<Result> results, double maxPositionError, double maxEnergyError) {
+		Result cheapest = null;
+		for (Result result : results) {
+			if (result.error == null && result.positionError <= maxPositionError && result.energyError <= maxEnergyError) {
+				if (cheapest == null || result.wallTimeMillis < cheapest.wallTimeMillis) {
+					cheapest = result;
+				}
+			}
+		}
+		return cheapest;
+	}
+
+	/**
+	 * Prints all results sorted by wall-clock time, the results on the Pareto frontier are marked with <code>*</code>.
+	 *
+	 * @param results the results
+	 * @param out the stream to print to
+	 */
+	public static void print(List<Result> results, PrintStream out) {
+		List<Result> frontier = paretoFrontier(results);
+		List<Result> sorted = new ArrayList<>(results);
+		sorted.sort(Comparator.comparingDouble(result -> result.wallTimeMillis));
+
+		out.println(String.format(Locale.US, "  %-40s %10s %8s %12s %12s %12s %10s", "configuration", "millis", "steps", "rmsPosition", "maxPosition", "energy", "unmatched"));
+		for (Result result : sorted) {
+			out.println((frontier.contains(result) ? "* " : "  ") + result);
+		}
+	}
+
+	public static class Configuration {
+		public final String name;
+		public final Supplier<Simulation> simulationFactory;
+		public final double deltaTime;
+		public final double targetDrift;
+
+		/**
+		 * Creates a configuration with a fixed time step.
+		 *
+		 * @param name the name printed in the results
+		 * @param simulationFactory creates the configured simulation
+		 * @param deltaTime the time of a single step
+		 */
+		public Configuration(String name, Supplier<Simulation> simulationFactory, double deltaTime) {
+			this(name, simulationFactory, deltaTime, 0);
+		}
+
+		/**
+		 * Creates a configuration.
+		 *
+		 * @param name the name printed in the results
+		 * @param simulationFactory creates the configured simulation
+		 * @param deltaTime the time of a single step, the initial time step if the time step is adaptive
+		 * @param targetDrift the target relative energy drift of an {@link AdaptiveTimeStep}, 0 for a fixed time step
+		 */
+		public Configuration(String name, Supplier<Simulation> simulationFactory, double deltaTime, double targetDrift) {
+			this.name = name;
+			this.simulationFactory = simulationFactory;
+			this.deltaTime = deltaTime;
+			this.targetDrift = targetDrift;
+		}
+	}
+
+	public static class Result {
+		public final Configuration configuration;
+		public final long steps;
+		public final double wallTimeMillis;
+		public final double positionError;
+		public final double maxPositionError;
+		public final double energyError;
+		public final int unmatchedPlanets;
+		public final String error;
+
+		/**
+		 * Creates a result.
+		 *
+		 * @param configuration the compared configuration
+		 * @param steps the number of simulated steps
+		 * @param wallTimeMillis the wall-clock time of the simulated steps in milliseconds
+		 * @param positionError the root mean square distance of the matched planets to the reference planets
+		 * @param maxPositionError the maximum distance of a matched planet to the reference planet
+		 * @param energyError the difference of the final energy to the final reference energy, relative to the initial energy
+		 * @param unmatchedPlanets the number of planets that exist only in the reference or only in this configuration
+		 * @param error the error if the configuration failed, <code>null</code> otherwise
+		 */
+		public Result(Configuration configuration, long steps, double wallTimeMillis, double positionError, double maxPositionError, double energyError, int unmatchedPlanets, String error) {
+			this.configuration = configuration;
+			this.steps = steps;
+			this.wallTimeMillis = wallTimeMillis;
+			this.positionError = positionError;
+			this.maxPositionError = maxPositionError;
+			this.energyError = energyError;
+			this.unmatchedPlanets = unmatchedPlanets;
+			this.error = error;
+		}
+
+		public boolean dominates(Result other) {
+			boolean notWorse = wallTimeMillis <= other.wallTimeMillis
+					&& positionError <= other.positionError
+					&& energyError <= other.energyError
+					&& unmatchedPlanets <= other.unmatchedPlanets;
+			boolean better = wallTimeMillis < other.wallTimeMillis
+					|| positionError < other.positionError
+					|| energyError < other.energyError
+					|| unmatchedPlanets < other.unmatchedPlanets;
+			return notWorse && better;
+		}
+
+		@Override
+		public String toString() {
+			if (error != null) {
+				return String.format(Locale.US, "%-40s %10.1f failed: %s", configuration.name, wallTimeMillis, error);
+			}
+			return String.format(Locale.US, "%-40s %10.1f %8d %12.4g %12.4g %12.4g %10d",
+					configuration.name,
+					wallTimeMillis,
+					steps,
+					positionError,
+					maxPositionError,
+					energyError,
+					unmatchedPlanets);
+		}
+	}
+
+	private static class Run {
+		Map<String, Planet> planets = new HashMap<>();
+		ConservedQuantities initial;
+		ConservedQuantities end;
+		long steps;
+		double wallTimeMillis;
+		String error;
+	}
+}
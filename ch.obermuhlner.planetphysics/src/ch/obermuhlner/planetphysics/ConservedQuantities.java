@@ -0,0 +1,76 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.Collection;
+
+import ch.obermuhlner.planetphysics.math.Vector2;
+
+/**
+ * Total energy, linear momentum and angular momentum (around the origin) of a set of planets.
+ */
+public class ConservedQuantities {
+
+	public final double kineticEnergy;
+	public final double potentialEnergy;
+	public final double momentumX;
+	public final double momentumY;
+	public final double angularMomentum;
+
+	public ConservedQuantities(double kineticEnergy, double potentialEnergy, double momentumX, double momentumY, double angularMomentum) {
+		this.kineticEnergy = kineticEnergy;
+		this.potentialEnergy = potentialEnergy;
+		this.momentumX = momentumX;
+		this.momentumY = momentumY;
+		this.angularMomentum = angularMomentum;
+	}
+
+	public double getEnergy() {
+		return kineticEnergy + potentialEnergy;
+	}
+
+	/**
+	 * Returns the energy drift relative to the specified initial quantities.
+	 * 
+	 * @param initial the initial quantities
+	 * @return the relative energy drift
+	 */
+	public double getRelativeEnergyDrift(ConservedQuantities initial) {
+		double initialEnergy = initial.getEnergy();
+		if (initialEnergy == 0) {
+			return getEnergy() - initialEnergy;
+		}
+		return (getEnergy() - initialEnergy) / Math.abs(initialEnergy);
+	}
+
+	/**
+	 * Calculates the conserved quantities of the massive planets of a simulation by direct summation.
+	 * 
+	 * @param simulation the simulation
+	 * @return the calculated quantities
+	 */
+	public static ConservedQuantities calculate(Simulation simulation) {
+		return calculate(simulation.getPlanets(), simulation.getGravity());
+	}
+
+	public static ConservedQuantities calculate(Collection<Planet> planets, double gravity) {
+		Planet[] array = planets.toArray(new Planet[planets.size()]);
+		double kineticEnergy = 0;
+		double potentialEnergy = 0;
+		double momentumX = 0;
+		double momentumY = 0;
+		double angularMomentum = 0;
+		for (int i = 0; i < array.length; i++) {
+			Planet planet = array[i];
+			Vector2 position = planet.getPosition();
+			Vector2 speed = planet.getSpeed();
+			double mass = planet.getMass();
+			kineticEnergy += 0.5 * mass * speed.getLengthSquared();
+			momentumX += mass * speed.x;
+			momentumY += mass * speed.y;
+			angularMomentum += mass * (position.x * speed.y - position.y * speed.x);
+			for (int j = i + 1; j < array.length; j++) {
+				potentialEnergy -= gravity * mass * array[j].getMass() / Math.sqrt(position.distanceSquared(array[j].getPosition()));
+			}
+		}
+		return new ConservedQuantities(kineticEnergy, potentialEnergy, momentumX, momentumY, angularMomentum);
+	}
+}
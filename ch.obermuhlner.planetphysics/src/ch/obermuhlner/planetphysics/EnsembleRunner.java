@@ -0,0 +1,200 @@
+package ch.obermuhlner.planetphysics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs many independent simulations concurrently and streams a summary line per run to a CSV file.
+ */
+public class EnsembleRunner {
+
+	public static final String CSV_HEADER = "name,planets,weightless,energyDrift,wallTimeMillis,error";
+
+	private final int threadCount;
+
+	public EnsembleRunner() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public EnsembleRunner(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Runs all simulations on a bounded thread pool.
+	 * 
+	 * The results are written to the file in the order the runs complete.
+	 * 
+	 * @param runs the runs to execute
+	 * @param resultsFile the CSV file to write the results to
+	 * @return the results in completion order
+	 * @throws IOException if the results could not be written
+	 * @throws InterruptedException if the calling thread was interrupted
+	 */
+	public List<Result> run(List<Run> runs, Path resultsFile) throws IOException, InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try (BufferedWriter writer = Files.newBufferedWriter(resultsFile)) {
+			writer.write(CSV_HEADER);
+			writer.newLine();
+
+			CompletionService<Result> completionService = new ExecutorCompletionService<>(executor);
+			for (Run run : runs) {
+				completionService.submit(() -> execute(run));
+			}
+
+			List<Result> results = new ArrayList<>();
+			for (int i = 0; i < runs.size(); i++) {
+				Result result;
+				try {
+					result = completionService.take().get();
+				} catch (ExecutionException e) {
+					throw new IllegalStateException(e.getCause());
+				}
+				results.add(result);
+				writer.write(result.toCsv());
+				writer.newLine();
+				writer.flush();
+			}
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static Result execute(Run run) {
+		long startNanos = System.nanoTime();
+		try {
+			Simulation simulation = run.simulationFactory.get();
+			run.scenario.accept(simulation);
+
+			ConservedQuantities initial = ConservedQuantities.calculate(simulation);
+			simulation.simulateSteps(run.stepCount, run.deltaTime, 0);
+			ConservedQuantities end = ConservedQuantities.calculate(simulation);
+
+			return new Result(
+					run.name,
+					simulation.getPlanets().size(),
+					simulation.getWeightlessPlanets().size(),
+					end.getRelativeEnergyDrift(initial),
+					(System.nanoTime() - startNanos) / 1_000_000,
+					null);
+		} catch (RuntimeException e) {
+			return new Result(run.name, -1, -1, Double.NaN, (System.nanoTime() - startNanos) / 1_000_000, e.toString());
+		}
+	}
+
+	public static class Run {
+		public final String name;
+		public final Supplier<Simulation> simulationFactory;
+		public final Consumer<Simulation> scenario;
+		public final double deltaTime;
+		public final int stepCount;
+
+		/**
+		 * Creates a run.
+		 * 
+		 * @param name the name written to the results
+		 * @param simulationFactory creates the configured simulation
+		 * @param scenario adds the planets to the simulation
+		 * @param deltaTime the time of a single step
+		 * @param stepCount the number of steps to simulate
+		 */
+		public Run(String name, Supplier<Simulation> simulationFactory, Consumer<Simulation> scenario, double deltaTime, int stepCount) {
+			this.name = name;
+			this.simulationFactory = simulationFactory;
+			this.scenario = scenario;
+			this.deltaTime = deltaTime;
+			this.stepCount = stepCount;
+		}
+	}
+
+	public static class Result {
+		public final String name;
+		public final int planetCount;
+		public final int weightlessPlanetCount;
+		public final double energyDrift;
+		public final long wallTimeMillis;
+		public final String error;
+
+		public Result(String name, int planetCount, int weightlessPlanetCount, double energyDrift, long wallTimeMillis, String error) {
+			this.name = name;
+			this.planetCount = planetCount;
+			this.weightlessPlanetCount = weightlessPlanetCount;
+			this.energyDrift = energyDrift;
+			this.wallTimeMillis = wallTimeMillis;
+			this.error = error;
+		}
+
+		public String toCsv() {
+			return String.format(Locale.US, "%s,%d,%d,%g,%d,%s",
+					quote(name),
+					planetCount,
+					weightlessPlanetCount,
+					energyDrift,
+					wallTimeMillis,
+					error == null ? "" : quote(error));
+		}
+
+		private static String quote(String value) {
+			return "\"" + value.replace("\"", "'") + "\"";
+		}
+	}
+
+	/**
+	 * Sweeps gravity, collisions, weightless threshold, time step and seed over a random scenario.
+	 * 
+	 * Arguments: <code>[resultsFile] [stepCount] [planetCount]</code>
+	 * 
+	 * @param args the command line arguments
+	 * @throws Exception if the ensemble failed
+	 */
+	public static void main(String[] args) throws Exception {
+		Path resultsFile = Paths.get(args.length > 0 ? args[0] : "ensemble-results.csv");
+		int stepCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int planetCount = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+		List<Run> runs = new ArrayList<>();
+		for (double gravity : new double[] { 5, 10, 20 }) {
+			for (boolean collisions : new boolean[] { true, false }) {
+				// the random planets have a mass between 0.1 and 2
+				for (double weightLessThreshold : new double[] { 0.0, 0.5 }) {
+					for (double deltaTime : new double[] { 0.5, 1.0, 2.0 }) {
+						for (long seed = 1; seed <= 4; seed++) {
+							long scenarioSeed = seed;
+							String name = String.format(Locale.US, "gravity=%s collisions=%s weightLessThreshold=%s deltaTime=%s seed=%d", gravity, collisions, weightLessThreshold, deltaTime, seed);
+							runs.add(new Run(
+									name,
+									() -> {
+										BruteForceSimulation simulation = new BruteForceSimulation();
+										simulation.setGravity(gravity);
+										simulation.setCollisions(collisions);
+										simulation.setWeightLessThreshold(weightLessThreshold);
+										return simulation;
+									},
+									simulation -> new ScenarioGenerator(scenarioSeed).addRandomPlanets(simulation, planetCount, 200, 2.0),
+									deltaTime,
+									stepCount));
+						}
+					}
+				}
+			}
+		}
+
+		long startMillis = System.currentTimeMillis();
+		new EnsembleRunner().run(runs, resultsFile);
+		System.out.println(runs.size() + " runs in " + (System.currentTimeMillis() - startMillis) + " ms written to " + resultsFile);
+	}
+}
@@ -0,0 +1,370 @@
+package ch.obermuhlner.planetphysics;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.imageio.ImageIO;
+
+import ch.obermuhlner.planetphysics.math.Vector2;
+
+/**
+ * Renders the states of a {@link Simulation} offscreen into a sequence of image files, for example to create a video.
+ *
+ * The planets are drawn like in the JavaFX application (hue color, tails, names) with java.awt,
+ * so no JavaFX thread is needed.
+ * {@link #export(Simulation)} only copies the state of the planets, rendering and encoding run in parallel on a thread pool.
+ * The number of copied frames waiting for rendering is bounded, so the caller is slowed down if the pool cannot keep up.
+ *
+ * The frames are written as <code>frame_000000.png</code> or, in {@link Format#RAW raw} format,
+ * as <code>frame_000000.rgb</code> containing <code>width * height</code> RGB pixels with 8 bits per channel, row by row
+ * (for example <code>ffmpeg -f rawvideo -pix_fmt rgb24 -s 1200x600 -i frame_%06d.rgb</code>).
+ */
+public class FrameExporter implements AutoCloseable {
+
+	public enum Format {
+		PNG,
+		RAW
+	}
+
+	private final File directory;
+	private final int width;
+	private final int height;
+	private final ExecutorService executor;
+	private final Semaphore pendingFrames;
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+	private Format format = Format.PNG;
+	private double centerX;
+	private double centerY;
+	private double zoomFactor = 1.0;
+	private int tailLength;
+	private boolean tailWeightless;
+	private int frameIndex;
+
+	public FrameExporter(File directory, int width, int height) {
+		this(directory, width, height, Runtime.getRuntime().availableProcessors());
+	}
+
+	public FrameExporter(File directory, int width, int height, int threadCount) {
+		this.directory = directory;
+		this.width = width;
+		this.height = height;
+		this.executor = Executors.newFixedThreadPool(threadCount);
+		this.pendingFrames = new Semaphore(threadCount * 2);
+	}
+
+	public void setFormat(Format format) {
+		this.format = format;
+	}
+
+	/**
+	 * Sets the visible region.
+	 *
+	 * @param centerX the x coordinate in the center of the frames
+	 * @param centerY the y coordinate in the center of the frames
+	 * @param zoomFactor the simulated distance per pixel
+	 */
+	public void setView(double centerX, double centerY, double zoomFactor) {
+		this.centerX = centerX;
+		this.centerY = centerY;
+		this.zoomFactor = zoomFactor;
+	}
+
+	/**
+	 * Sets the number of old positions drawn as tail, the simulation must be stepped with at least this tail length.
+	 *
+	 * @param tailLength the tail length
+	 * @param tailWeightless <code>true</code> to draw the tails of weightless planets as well
+	 */
+	public void setTail(int tailLength, boolean tailWeightless) {
+		this.tailLength = tailLength;
+		this.tailWeightless = tailWeightless;
+	}
+
+	public int getFrameCount() {
+		return frameIndex;
+	}
+
+	/**
+	 * Exports the current state of the simulation as next frame.
+	 *
+	 * Returns as soon as the state is copied, the frame is written asynchronously.
+	 *
+	 * @param simulation the simulation
+	 * @throws IOException if writing an earlier frame failed
+	 * @throws InterruptedException if interrupted while waiting for a free frame slot
+	 */
+	public void export(Simulation simulation) throws IOException, InterruptedException {
+		checkFailure();
+
+		FrameState state = new FrameState(simulation, tailLength, tailWeightless);
+		File file = new File(directory, String.format("frame_%06d.%s", frameIndex++, format == Format.PNG ? "png" : "rgb"));
+		Format frameFormat = format;
+		double frameCenterX = centerX;
+		double frameCenterY = centerY;
+		double frameZoomFactor = zoomFactor;
+
+		pendingFrames.acquire();
+		executor.execute(() -> {
+			try {
+				if (failure.get() == null) {
+					BufferedImage image = render(state, frameCenterX, frameCenterY, frameZoomFactor);
+					write(image, frameFormat, file);
+				}
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+			} finally {
+				pendingFrames.release();
+			}
+		});
+	}
+
+	/**
+	 * Exports the recorded steps of a {@link RewindHistory}.
+	 *
+	 * The simulation is restored to the first step and then simulated forward with the recorded time steps,
+	 * so that tails build up like in the original run.
+	 * The replayed merges are not published to the collision event subscribers.
+	 *
+	 * @param history the history
+	 * @param simulation the simulation used to replay the history, its planets are replaced
+	 * @param fromStep the first step to export
+	 * @param toStep the last step to export
+	 * @param stepsPerFrame the number of steps between two exported frames
+	 * @throws IOException if writing a frame failed
+	 * @throws InterruptedException if interrupted while waiting for a free frame slot
+	 */
+	public void exportHistory(RewindHistory history, Simulation simulation, long fromStep, long toStep, int stepsPerFrame) throws IOException, InterruptedException {
+		CollisionEventStream collisionEvents = simulation.getCollisionEvents();
+		boolean suspended = collisionEvents.isSuspended();
+		collisionEvents.setSuspended(true);
+		try {
+			history.seek(simulation, fromStep, tailLength);
+			export(simulation);
+
+			for (long step = fromStep + 1; step <= toStep; step++) {
+				double deltaTime = history.getDeltaTime(step);
+				if (Double.isNaN(deltaTime)) {
+					history.seek(simulation, step, tailLength);
+				} else {
+					simulation.simulateStep(deltaTime, tailLength);
+				}
+				if ((step - fromStep) % stepsPerFrame == 0) {
+					export(simulation);
+				}
+			}
+		} finally {
+			collisionEvents.setSuspended(suspended);
+		}
+	}
+
+	/**
+	 * Waits until all frames are written.
+	 *
+	 * @throws IOException if writing a frame failed
+	 */
+	@Override
+	public void close() throws IOException {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		checkFailure();
+	}
+
+	private void checkFailure() throws IOException {
+		Throwable throwable = failure.get();
+		if (throwable instanceof IOException) {
+			throw (IOException) throwable;
+		}
+		if (throwable != null) {
+			throw new IOException("Failed to export frame", throwable);
+		}
+	}
+
+	private BufferedImage render(FrameState state, double centerX, double centerY, double zoomFactor) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			graphics.setStroke(new BasicStroke(1.0f));
+			graphics.setColor(Color.BLACK);
+			graphics.fillRect(0, 0, width, height);
+
+			double tailFactor = tailLength == 0 ? 0 : Math.pow(0.05, 1.0 / tailLength);
+			Line2D.Double line = new Line2D.Double();
+			Ellipse2D.Double oval = new Ellipse2D.Double();
+
+			for (int i = 0; i < state.count; i++) {
+				float hue = (float) (state.hue[i] / 360.0);
+				double screenX = (state.x[i] - centerX) / zoomFactor + width / 2.0;
+				double screenY = (state.y[i] - centerY) / zoomFactor + height / 2.0;
+
+				Vector2[] tail = state.tails[i];
+				if (tail != null) {
+					double lastX = screenX;
+					double lastY = screenY;
+					float brightness = 1.0f;
+					for (Vector2 tailPosition : tail) {
+						double tailX = (tailPosition.x - centerX) / zoomFactor + width / 2.0;
+						double tailY = (tailPosition.y - centerY) / zoomFactor + height / 2.0;
+						graphics.setColor(Color.getHSBColor(hue, 1.0f, brightness));
+						line.setLine(lastX, lastY, tailX, tailY);
+						graphics.draw(line);
+						brightness *= tailFactor;
+						lastX = tailX;
+						lastY = tailY;
+					}
+				}
+
+				double radiusScreenPixels = Math.max(state.radius[i], 1);
+				double ovalX = screenX - radiusScreenPixels / 2;
+				double ovalY = screenY - radiusScreenPixels / 2;
+				if (ovalX + radiusScreenPixels < 0 || ovalY + radiusScreenPixels < 0 || ovalX > width || ovalY > height) {
+					continue;
+				}
+
+				graphics.setColor(Color.getHSBColor(hue, 1.0f, 1.0f));
+				oval.setFrame(ovalX, ovalY, radiusScreenPixels, radiusScreenPixels);
+				graphics.fill(oval);
+
+				if (state.name[i] != null) {
+					graphics.drawString(state.name[i], (float) (ovalX + 2 + radiusScreenPixels), (float) (ovalY + 2 + radiusScreenPixels));
+				}
+			}
+		} finally {
+			graphics.dispose();
+		}
+		return image;
+	}
+
+	private void write(BufferedImage image, Format format, File file) throws IOException {
+		switch (format) {
+		case PNG:
+			if (!ImageIO.write(image, "png", file)) {
+				throw new IOException("No PNG writer available");
+			}
+			break;
+		case RAW:
+			int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			byte[] bytes = new byte[pixels.length * 3];
+			for (int i = 0; i < pixels.length; i++) {
+				int pixel = pixels[i];
+				bytes[i * 3] = (byte) (pixel >> 16);
+				bytes[i * 3 + 1] = (byte) (pixel >> 8);
+				bytes[i * 3 + 2] = (byte) pixel;
+			}
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+				out.write(bytes);
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Copy of the drawn properties of all planets, weightless planets first so that massive planets are drawn on top.
+	 */
+	private static class FrameState {
+		final int count;
+		final double[] x;
+		final double[] y;
+		final double[] radius;
+		final double[] hue;
+		final String[] name;
+		final Vector2[][] tails;
+
+		FrameState(Simulation simulation, int tailLength, boolean tailWeightless) {
+			Collection<Planet> weightlessPlanets = simulation.getWeightlessPlanets();
+			Collection<Planet> planets = simulation.getPlanets();
+			int capacity = weightlessPlanets.size() + planets.size();
+			x = new double[capacity];
+			y = new double[capacity];
+			radius = new double[capacity];
+			hue = new double[capacity];
+			name = new String[capacity];
+			tails = new Vector2[capacity][];
+
+			int i = 0;
+			for (Collection<Planet> collection : Arrays.asList(weightlessPlanets, planets)) {
+				int planetTailLength = collection == planets || tailWeightless ? tailLength : 0;
+				for (Planet planet : collection) {
+					if (i < capacity && !planet.isDeleted()) {
+						x[i] = planet.getPosition().x;
+						y[i] = planet.getPosition().y;
+						radius[i] = planet.getRadius();
+						hue[i] = planet.getHue();
+						name[i] = planet.getName();
+						List<Vector2> oldPositions = planet.getOldPositions();
+						if (planetTailLength > 0 && oldPositions != null && !oldPositions.isEmpty()) {
+							// Vector2 is immutable, copying the references is enough
+							tails[i] = oldPositions.subList(0, Math.min(planetTailLength, oldPositions.size())).toArray(new Vector2[0]);
+						}
+						i++;
+					}
+				}
+			}
+			count = i;
+		}
+	}
+
+	/**
+	 * Exports a central planet with asteroids.
+	 *
+	 * Arguments: <code>[directory] [frames] [stepsPerFrame] [asteroidCount]</code>
+	 *
+	 * @param args the command line arguments
+	 * @throws Exception if the export failed
+	 */
+	public static void main(String[] args) throws Exception {
+		File directory = new File(args.length > 0 ? args[0] : "frames");
+		int frames = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+		int stepsPerFrame = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		int asteroidCount = args.length > 3 ? Integer.parseInt(args[3]) : 10_000;
+		int tailLength = 20;
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create directory " + directory);
+		}
+
+		BruteForceSimulation simulation = new BruteForceSimulation();
+		Planet central = new Planet("Sun", Vector2.of(0, 0), Vector2.of(0, 0), 1000.0, 60.0);
+		simulation.add(central);
+		new ScenarioGenerator(1).addAsteroids(simulation, central, asteroidCount, 0.0, 100, 1000, null);
+
+		long startMillis = System.currentTimeMillis();
+		try (FrameExporter exporter = new FrameExporter(directory, 1200, 600)) {
+			exporter.setView(0, 0, 2.0);
+			exporter.setTail(tailLength, false);
+			for (int frame = 0; frame < frames; frame++) {
+				exporter.export(simulation);
+				for (int step = 0; step < stepsPerFrame; step++) {
+					simulation.simulateStep(1.0, tailLength);
+				}
+			}
+		}
+		System.out.println("Exported " + frames + " frames in " + (System.currentTimeMillis() - startMillis) + " ms to " + directory);
+	}
+}
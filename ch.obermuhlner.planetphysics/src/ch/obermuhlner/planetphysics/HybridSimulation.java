@@ -0,0 +1,418 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ch.obermuhlner.planetphysics.math.Vector2;
+
+/**
+ * Simulation that sums the forces of the few heavy bodies directly
+ * and approximates the field of the many light bodies with a coarse cached grid.
+ *
+ * Planets heavier than the heavy threshold interact exactly with every body (including collisions).
+ * The field of the lighter planets is sampled on a coarse grid that is only refreshed every few steps
+ * and interpolated for every body; collisions between two light planets are not detected.
+ * A light planet does not feel its own mass in the cached field: its cell is replaced by the other members of the cell.
+ *
+ * The potential energy between the light planets is interpolated from a cached potential grid like the field.
+ */
+public class HybridSimulation extends AbstractSimulation {
+
+	private double heavyThreshold = 1.0;
+	private int fieldRefreshInterval = 10;
+	private int fieldGridSize = 32;
+
+	private final List<Planet> heavyPlanets = new ArrayList<>();
+	private final List<Planet> lightPlanets = new ArrayList<>();
+
+	private int[] planetLightIndex = new int[0];
+
+	private int stepsSinceRefresh;
+	private Planet[] refreshedLightPlanets = null;
+
+	private double fieldOriginX;
+	private double fieldOriginY;
+	private double fieldCellSize;
+	private double[] fieldX = new double[0];
+	private double[] fieldY = new double[0];
+	private double[] fieldPotential = new double[0];
+	private double lightMass;
+	private double lightCenterX;
+	private double lightCenterY;
+
+	private double[] pseudoMass = new double[0];
+	private double[] pseudoX = new double[0];
+	private double[] pseudoY = new double[0];
+	private int[] lightPseudo = new int[0];
+	private double[] lightMassAtRefresh = new double[0];
+	private double[] lightXAtRefresh = new double[0];
+	private double[] lightYAtRefresh = new double[0];
+
+	private double correctionX;
+	private double correctionY;
+	private double correctionPotential;
+
+	/**
+	 * Sets the mass above which planets are treated as heavy and summed directly.
+	 *
+	 * @param heavyThreshold the mass threshold
+	 */
+	public void setHeavyThreshold(double heavyThreshold) {
+		this.heavyThreshold = heavyThreshold;
+		refreshedLightPlanets = null;
+	}
+
+	/**
+	 * Sets the number of steps after which the cached field of the light planets is recalculated.
+	 *
+	 * @param fieldRefreshInterval the number of steps, 1 to refresh in every step
+	 */
+	public void setFieldRefreshInterval(int fieldRefreshInterval) {
+		this.fieldRefreshInterval = Math.max(1, fieldRefreshInterval);
+	}
+
+	public void setFieldGridSize(int fieldGridSize) {
+		this.fieldGridSize = Math.max(2, fieldGridSize);
+		refreshedLightPlanets = null;
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		refreshedLightPlanets = null;
+	}
+
+	@Override
+	public void simulateStep(double deltaTime, int tailLength) {
+		collisionEvents.nextStep();
+
+		heavyPlanets.clear();
+		lightPlanets.clear();
+		if (planetLightIndex.length < planets.size()) {
+			planetLightIndex = new int[planets.size()];
+		}
+		for (int i = 0; i < planets.size(); i++) {
+			Planet planet = planets.get(i);
+			if (planet.getMass() > heavyThreshold) {
+				heavyPlanets.add(planet);
+				planetLightIndex[i] = -1;
+			} else {
+				planetLightIndex[i] = lightPlanets.size();
+				lightPlanets.add(planet);
+			}
+		}
+
+		if (stepsSinceRefresh >= fieldRefreshInterval || !isRefreshed(lightPlanets)) {
+			refreshLightField();
+			stepsSinceRefresh = 0;
+			refreshedLightPlanets = lightPlanets.toArray(new Planet[lightPlanets.size()]);
+		}
+		stepsSinceRefresh++;
+
+		beginConservedQuantities();
+		for (int i = 0; i < planets.size(); i++) {
+			calculateGravity(planets.get(i), planetLightIndex[i], deltaTime, true);
+		}
+		endConservedQuantities();
+		for (Planet planet : weightlessPlanets) {
+			calculateGravity(planet, -1, deltaTime, false);
+		}
+
+		updatePosition(planets, deltaTime, tailLength);
+		updatePosition(weightlessPlanets, deltaTime, tailLength);
+	}
+
+	/**
+	 * Returns whether the light planets are the same as at the last refresh,
+	 * the arrays of the refresh are indexed by the position in the light planets.
+	 */
+	private boolean isRefreshed(List<Planet> lightPlanets) {
+		if (refreshedLightPlanets == null || refreshedLightPlanets.length != lightPlanets.size()) {
+			return false;
+		}
+		for (int i = 0; i < refreshedLightPlanets.length; i++) {
+			if (refreshedLightPlanets[i] != lightPlanets.get(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void refreshLightField() {
+		lightMass = 0;
+		lightCenterX = 0;
+		lightCenterY = 0;
+		if (lightPlanets.isEmpty()) {
+			return;
+		}
+
+		double minX = Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		double maxRadius = 0;
+		for (Planet planet : lightPlanets) {
+			Vector2 position = planet.getPosition();
+			minX = Math.min(minX, position.x);
+			minY = Math.min(minY, position.y);
+			maxX = Math.max(maxX, position.x);
+			maxY = Math.max(maxY, position.y);
+			maxRadius = Math.max(maxRadius, planet.getRadius());
+			lightMass += planet.getMass();
+			lightCenterX += planet.getMass() * position.x;
+			lightCenterY += planet.getMass() * position.y;
+		}
+		if (lightMass > 0) {
+			lightCenterX /= lightMass;
+			lightCenterY /= lightMass;
+		}
+
+		int cellCount = fieldGridSize;
+		// the field is softened by the cell size, cells smaller than a planet would only amplify rounding errors
+		fieldCellSize = Math.max(Math.max(Math.max(maxX - minX, maxY - minY) / (cellCount - 1), maxRadius), 1e-9);
+		fieldOriginX = minX - fieldCellSize * 0.5;
+		fieldOriginY = minY - fieldCellSize * 0.5;
+
+		// collapse the light planets into one pseudo body per cell
+		int lightCount = lightPlanets.size();
+		if (lightPseudo.length < lightCount) {
+			lightPseudo = new int[lightCount];
+			lightMassAtRefresh = new double[lightCount];
+			lightXAtRefresh = new double[lightCount];
+			lightYAtRefresh = new double[lightCount];
+		}
+		double[] cellMass = new double[cellCount * cellCount];
+		double[] cellX = new double[cellCount * cellCount];
+		double[] cellY = new double[cellCount * cellCount];
+		for (int i = 0; i < lightCount; i++) {
+			Planet planet = lightPlanets.get(i);
+			Vector2 position = planet.getPosition();
+			int column = Math.min(cellCount - 1, (int) ((position.x - fieldOriginX) / fieldCellSize));
+			int row = Math.min(cellCount - 1, (int) ((position.y - fieldOriginY) / fieldCellSize));
+			int index = row * cellCount + column;
+			cellMass[index] += planet.getMass();
+			cellX[index] += planet.getMass() * position.x;
+			cellY[index] += planet.getMass() * position.y;
+
+			lightPseudo[i] = index;
+			lightMassAtRefresh[i] = planet.getMass();
+			lightXAtRefresh[i] = position.x;
+			lightYAtRefresh[i] = position.y;
+		}
+		int[] cellPseudo = new int[cellMass.length];
+		int pseudoCount = 0;
+		for (int i = 0; i < cellMass.length; i++) {
+			if (cellMass[i] > 0) {
+				cellMass[pseudoCount] = cellMass[i];
+				cellX[pseudoCount] = cellX[i] / cellMass[i];
+				cellY[pseudoCount] = cellY[i] / cellMass[i];
+				cellPseudo[i] = pseudoCount;
+				pseudoCount++;
+			}
+		}
+		for (int i = 0; i < lightCount; i++) {
+			lightPseudo[i] = cellPseudo[lightPseudo[i]];
+		}
+		pseudoMass = cellMass;
+		pseudoX = cellX;
+		pseudoY = cellY;
+
+		// sample the field of the pseudo bodies at the grid nodes
+		int nodeCount = cellCount + 1;
+		if (fieldX.length != nodeCount * nodeCount) {
+			fieldX = new double[nodeCount * nodeCount];
+			fieldY = new double[nodeCount * nodeCount];
+			fieldPotential = new double[nodeCount * nodeCount];
+		} else {
+			Arrays.fill(fieldX, 0);
+			Arrays.fill(fieldY, 0);
+			Arrays.fill(fieldPotential, 0);
+		}
+		double softeningSquared = fieldCellSize * fieldCellSize;
+		for (int row = 0; row < nodeCount; row++) {
+			double nodeY = fieldOriginY + row * fieldCellSize;
+			for (int column = 0; column < nodeCount; column++) {
+				double nodeX = fieldOriginX + column * fieldCellSize;
+				double accelerationX = 0;
+				double accelerationY = 0;
+				double potential = 0;
+				for (int i = 0; i < pseudoCount; i++) {
+					double deltaX = cellX[i] - nodeX;
+					double deltaY = cellY[i] - nodeY;
+					double distanceSquared = deltaX * deltaX + deltaY * deltaY + softeningSquared;
+					double magnitude = gravity * cellMass[i] / (distanceSquared * Math.sqrt(distanceSquared));
+					accelerationX += deltaX * magnitude;
+					accelerationY += deltaY * magnitude;
+					potential -= magnitude * distanceSquared;
+				}
+				fieldX[row * nodeCount + column] = accelerationX;
+				fieldY[row * nodeCount + column] = accelerationY;
+				fieldPotential[row * nodeCount + column] = potential;
+			}
+		}
+	}
+
+	/**
+	 * Calculates the gravity on a planet and updates its speed.
+	 *
+	 * @param lightIndex the index of the planet in the light planets, -1 for heavy and weightless planets
+	 * @param conserved <code>true</code> to add the planet to the conserved quantities
+	 */
+	private void calculateGravity(Planet planet, int lightIndex, double deltaTime, boolean conserved) {
+		if (planet.isDeleted()) {
+			return;
+		}
+
+		Vector2 position = planet.getPosition();
+		double accelerationX = 0;
+		double accelerationY = 0;
+		double heavyPotential = 0;
+		double lightPotential = 0;
+
+		for (Planet other : heavyPlanets) {
+			if (other != planet && !other.isDeleted()) {
+				double deltaX = other.getPosition().x - position.x;
+				double deltaY = other.getPosition().y - position.y;
+				double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+				if (collisions && distance < planet.getRadius() + other.getRadius()) {
+					// the light planet is absorbed so that the heavy planet keeps its identity
+					if (planet.getMass() < other.getMass()) {
+						collisionEvents.merge(other, planet);
+						return;
+					} else {
+						collisionEvents.merge(planet, other);
+					}
+				} else {
+					double magnitude = gravity * other.getMass() / (distance * distance * distance);
+					accelerationX += deltaX * magnitude;
+					accelerationY += deltaY * magnitude;
+					heavyPotential -= magnitude * distance * distance;
+				}
+			}
+		}
+
+		if (lightMass > 0) {
+			double gridX = (position.x - fieldOriginX) / fieldCellSize;
+			double gridY = (position.y - fieldOriginY) / fieldCellSize;
+			if (gridX >= 0 && gridY >= 0 && gridX < fieldGridSize && gridY < fieldGridSize) {
+				int nodeCount = fieldGridSize + 1;
+				int column = (int) gridX;
+				int row = (int) gridY;
+				double weightX = gridX - column;
+				double weightY = gridY - row;
+				int index = row * nodeCount + column;
+				accelerationX += interpolate(fieldX, index, nodeCount, weightX, weightY);
+				accelerationY += interpolate(fieldY, index, nodeCount, weightX, weightY);
+				lightPotential += interpolate(fieldPotential, index, nodeCount, weightX, weightY);
+
+				if (lightIndex >= 0) {
+					calculateOwnCellCorrection(lightIndex, column, row, weightX, weightY);
+					accelerationX += correctionX;
+					accelerationY += correctionY;
+					lightPotential += correctionPotential;
+				}
+			} else {
+				double otherMass = lightMass;
+				double otherCenterX = lightCenterX;
+				double otherCenterY = lightCenterY;
+				if (lightIndex >= 0) {
+					double mass = lightMassAtRefresh[lightIndex];
+					otherMass -= mass;
+					if (otherMass > lightMass * 1e-12) {
+						otherCenterX = (lightMass * lightCenterX - mass * lightXAtRefresh[lightIndex]) / otherMass;
+						otherCenterY = (lightMass * lightCenterY - mass * lightYAtRefresh[lightIndex]) / otherMass;
+					} else {
+						otherMass = 0;
+					}
+				}
+				if (otherMass > 0) {
+					double deltaX = otherCenterX - position.x;
+					double deltaY = otherCenterY - position.y;
+					double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+					double magnitude = gravity * otherMass / (distance * distance * distance);
+					accelerationX += deltaX * magnitude;
+					accelerationY += deltaY * magnitude;
+					lightPotential -= magnitude * distance * distance;
+				}
+			}
+		}
+
+		if (conserved) {
+			// heavy planets only see the heavy planets directly and light planets see every heavy planet once,
+			// so the pairs with a heavy planet are visited twice if both are heavy and once otherwise
+			Vector2 speed = planet.getSpeed();
+			double mass = planet.getMass();
+			addConservedQuantities(mass, position.x, position.y, speed.x, speed.y);
+			addPotentialEnergy(lightIndex < 0 ? 0.5 * mass * heavyPotential : mass * (heavyPotential + 0.5 * lightPotential));
+		}
+
+		planet.setSpeed(planet.getSpeed().addScaled(accelerationX, accelerationY, deltaTime));
+	}
+
+	/**
+	 * Calculates the interpolated field of the other members of the cell of a light planet
+	 * minus the interpolated field of the whole cell, as they were sampled at the last refresh,
+	 * into {@link #correctionX}, {@link #correctionY} and {@link #correctionPotential}.
+	 */
+	private void calculateOwnCellCorrection(int lightIndex, int column, int row, double weightX, double weightY) {
+		int pseudo = lightPseudo[lightIndex];
+		double cellMass = pseudoMass[pseudo];
+		double cellX = pseudoX[pseudo];
+		double cellY = pseudoY[pseudo];
+		double otherMass = cellMass - lightMassAtRefresh[lightIndex];
+		double otherX = 0;
+		double otherY = 0;
+		if (otherMass > cellMass * 1e-12) {
+			otherX = (cellMass * cellX - lightMassAtRefresh[lightIndex] * lightXAtRefresh[lightIndex]) / otherMass;
+			otherY = (cellMass * cellY - lightMassAtRefresh[lightIndex] * lightYAtRefresh[lightIndex]) / otherMass;
+		} else {
+			otherMass = 0;
+		}
+
+		double softeningSquared = fieldCellSize * fieldCellSize;
+		correctionX = 0;
+		correctionY = 0;
+		correctionPotential = 0;
+		for (int nodeRow = 0; nodeRow <= 1; nodeRow++) {
+			double nodeY = fieldOriginY + (row + nodeRow) * fieldCellSize;
+			double weight0 = nodeRow == 0 ? 1 - weightY : weightY;
+			for (int nodeColumn = 0; nodeColumn <= 1; nodeColumn++) {
+				double nodeX = fieldOriginX + (column + nodeColumn) * fieldCellSize;
+				double weight = weight0 * (nodeColumn == 0 ? 1 - weightX : weightX);
+
+				double deltaX = cellX - nodeX;
+				double deltaY = cellY - nodeY;
+				double distanceSquared = deltaX * deltaX + deltaY * deltaY + softeningSquared;
+				double magnitude = weight * gravity * cellMass / (distanceSquared * Math.sqrt(distanceSquared));
+				correctionX -= deltaX * magnitude;
+				correctionY -= deltaY * magnitude;
+				correctionPotential += magnitude * distanceSquared;
+
+				if (otherMass > 0) {
+					deltaX = otherX - nodeX;
+					deltaY = otherY - nodeY;
+					distanceSquared = deltaX * deltaX + deltaY * deltaY + softeningSquared;
+					magnitude = weight * gravity * otherMass / (distanceSquared * Math.sqrt(distanceSquared));
+					correctionX += deltaX * magnitude;
+					correctionY += deltaY * magnitude;
+					correctionPotential -= magnitude * distanceSquared;
+				}
+			}
+		}
+	}
+
+	private static double interpolate(double[] field, int index, int nodeCount, double weightX, double weightY) {
+		return field[index] * (1 - weightX) * (1 - weightY)
+				+ field[index + 1] * weightX * (1 - weightY)
+				+ field[index + nodeCount] * (1 - weightX) * weightY
+				+ field[index + nodeCount + 1] * weightX * weightY;
+	}
+
+	private void updatePosition(List<Planet> planets, double deltaTime, int tailLength) {
+		removeDeleted(planets);
+		for (Planet planet : planets) {
+			planet.setPosition(planet.getPosition().addScaled(planet.getSpeed(), deltaTime), tailLength);
+		}
+	}
+}
@@ -0,0 +1,315 @@
+package ch.obermuhlner.planetphysics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import ch.obermuhlner.planetphysics.math.Vector2;
+
+/**
+ * Loads large initial condition files into a {@link Simulation}.
+ *
+ * The file is memory mapped and split into chunks that are parsed in parallel.
+ * The chunks are added in file order with {@link Simulation#addAll(java.util.Collection)}.
+ *
+ * The CSV format has one planet per line with the columns <code>x,y,speedX,speedY,mass[,hue[,name]]</code>.
+ * Empty lines, lines starting with <code>#</code> and header lines that do not start with a number are ignored.
+ * Numbers are parsed directly from the mapped bytes without creating strings.
+ *
+ * The binary format is a sequence of little endian records <code>double x, y, speedX, speedY, mass, hue</code>.
+ */
+public class InitialConditionsLoader {
+
+	public static final int BINARY_RECORD_SIZE = 6 * 8;
+
+	private static final int CHUNK_BYTES = 8 * 1024 * 1024;
+	private static final double DEFAULT_HUE = 60.0;
+
+	// a mantissa up to 2^53 and a power of ten up to 10^22 are exact doubles, so the fast path rounds only once
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1.0;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+		}
+	}
+
+	/**
+	 * Loads a CSV file.
+	 *
+	 * @param file the file to load
+	 * @param simulation the simulation to add the planets to
+	 * @return the number of loaded planets
+	 * @throws IOException if the file could not be read
+	 * @throws IllegalArgumentException if a line could not be parsed
+	 */
+	public static int loadCsv(Path file, Simulation simulation) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			List<Long> boundaries = new ArrayList<>();
+			boundaries.add(0L);
+			ByteBuffer lookahead = ByteBuffer.allocate(4096);
+			long position = CHUNK_BYTES;
+			while (position < size) {
+				position = findLineStart(channel, position, lookahead);
+				if (position < size) {
+					boundaries.add(position);
+				}
+				position += CHUNK_BYTES;
+			}
+			boundaries.add(size);
+
+			return load(channel, boundaries, InitialConditionsLoader::parseCsv, simulation);
+		}
+	}
+
+	/**
+	 * Loads a binary file.
+	 *
+	 * @param file the file to load
+	 * @param simulation the simulation to add the planets to
+	 * @return the number of loaded planets
+	 * @throws IOException if the file could not be read or its size is not a multiple of {@value #BINARY_RECORD_SIZE}
+	 */
+	public static int loadBinary(Path file, Simulation simulation) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size % BINARY_RECORD_SIZE != 0) {
+				throw new IOException("File size is not a multiple of " + BINARY_RECORD_SIZE + ": " + file);
+			}
+			long chunkBytes = (CHUNK_BYTES / BINARY_RECORD_SIZE) * BINARY_RECORD_SIZE;
+			List<Long> boundaries = new ArrayList<>();
+			for (long position = 0; position < size; position += chunkBytes) {
+				boundaries.add(position);
+			}
+			boundaries.add(size);
+
+			return load(channel, boundaries, InitialConditionsLoader::parseBinary, simulation);
+		}
+	}
+
+	private static long findLineStart(FileChannel channel, long position, ByteBuffer lookahead) throws IOException {
+		while (true) {
+			lookahead.clear();
+			int read = channel.read(lookahead, position);
+			if (read <= 0) {
+				return channel.size();
+			}
+			for (int i = 0; i < read; i++) {
+				if (lookahead.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+	}
+
+	private static int load(FileChannel channel, List<Long> boundaries, ChunkParser parser, Simulation simulation) throws IOException {
+		int chunkCount = boundaries.size() - 1;
+		MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount];
+		for (int chunk = 0; chunk < chunkCount; chunk++) {
+			long start = boundaries.get(chunk);
+			chunks[chunk] = channel.map(MapMode.READ_ONLY, start, boundaries.get(chunk + 1) - start);
+		}
+
+		int count = 0;
+		int batchChunks = Runtime.getRuntime().availableProcessors() * 2;
+		for (int batchStart = 0; batchStart < chunkCount; batchStart += batchChunks) {
+			List<List<Planet>> batch = IntStream.range(batchStart, Math.min(chunkCount, batchStart + batchChunks)).parallel()
+					.mapToObj(chunk -> parser.parse(chunks[chunk], boundaries.get(chunk)))
+					.collect(Collectors.toList());
+			for (List<Planet> planets : batch) {
+				simulation.addAll(planets);
+				count += planets.size();
+			}
+		}
+		return count;
+	}
+
+	private static List<Planet> parseBinary(MappedByteBuffer buffer, long fileOffset) {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		int recordCount = buffer.limit() / BINARY_RECORD_SIZE;
+		Planet[] planets = new Planet[recordCount];
+		for (int i = 0; i < recordCount; i++) {
+			int offset = i * BINARY_RECORD_SIZE;
+			planets[i] = new Planet(
+					Vector2.of(buffer.getDouble(offset), buffer.getDouble(offset + 8)),
+					Vector2.of(buffer.getDouble(offset + 16), buffer.getDouble(offset + 24)),
+					buffer.getDouble(offset + 32),
+					buffer.getDouble(offset + 40));
+		}
+		return Arrays.asList(planets);
+	}
+
+	private static List<Planet> parseCsv(MappedByteBuffer buffer, long fileOffset) {
+		List<Planet> planets = new ArrayList<>(buffer.limit() / 40);
+		double[] values = new double[6];
+		int[] cursor = new int[1];
+		int limit = buffer.limit();
+		int lineStart = 0;
+		while (lineStart < limit) {
+			int lineEnd = lineStart;
+			while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			int contentEnd = lineEnd;
+			if (contentEnd > lineStart && buffer.get(contentEnd - 1) == '\r') {
+				contentEnd--;
+			}
+
+			cursor[0] = skipSpaces(buffer, lineStart, contentEnd);
+			if (cursor[0] < contentEnd && isNumberStart(buffer.get(cursor[0]))) {
+				int fieldCount = 0;
+				String name = null;
+				while (cursor[0] < contentEnd) {
+					if (fieldCount < values.length) {
+						values[fieldCount++] = parseDouble(buffer, cursor, contentEnd, fileOffset);
+					} else {
+						int nameStart = skipSpaces(buffer, cursor[0], contentEnd);
+						int nameEnd = contentEnd;
+						while (nameEnd > nameStart && buffer.get(nameEnd - 1) == ' ') {
+							nameEnd--;
+						}
+						byte[] nameBytes = new byte[nameEnd - nameStart];
+						for (int i = 0; i < nameBytes.length; i++) {
+							nameBytes[i] = buffer.get(nameStart + i);
+						}
+						name = new String(nameBytes, StandardCharsets.UTF_8);
+						cursor[0] = contentEnd;
+						break;
+					}
+					cursor[0] = skipSpaces(buffer, cursor[0], contentEnd);
+					if (cursor[0] < contentEnd) {
+						if (buffer.get(cursor[0]) != ',') {
+							throw new IllegalArgumentException("Expected ',' at byte " + (fileOffset + cursor[0]));
+						}
+						cursor[0]++;
+					}
+				}
+				if (fieldCount < 5) {
+					throw new IllegalArgumentException("Expected at least 5 columns in line at byte " + (fileOffset + lineStart));
+				}
+				planets.add(new Planet(
+						name,
+						Vector2.of(values[0], values[1]),
+						Vector2.of(values[2], values[3]),
+						values[4],
+						fieldCount > 5 ? values[5] : DEFAULT_HUE));
+			}
+
+			lineStart = lineEnd + 1;
+		}
+		return planets;
+	}
+
+	private static boolean isNumberStart(byte b) {
+		return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.';
+	}
+
+	private static int skipSpaces(ByteBuffer buffer, int position, int end) {
+		while (position < end && (buffer.get(position) == ' ' || buffer.get(position) == '\t')) {
+			position++;
+		}
+		return position;
+	}
+
+	private static double parseDouble(ByteBuffer buffer, int[] cursor, int end, long fileOffset) {
+		int position = skipSpaces(buffer, cursor[0], end);
+		int start = position;
+
+		boolean negative = false;
+		if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+			negative = buffer.get(position) == '-';
+			position++;
+		}
+
+		long mantissa = 0;
+		int exponent = 0;
+		int digits = 0;
+		boolean dot = false;
+		boolean truncated = false;
+		while (position < end) {
+			byte b = buffer.get(position);
+			if (b >= '0' && b <= '9') {
+				if (mantissa < 100_000_000_000_000_000L) {
+					mantissa = mantissa * 10 + (b - '0');
+					if (dot) {
+						exponent--;
+					}
+				} else {
+					truncated = true;
+					if (!dot) {
+						exponent++;
+					}
+				}
+				digits++;
+			} else if (b == '.' && !dot) {
+				dot = true;
+			} else {
+				break;
+			}
+			position++;
+		}
+		if (digits == 0) {
+			throw new IllegalArgumentException("Expected number at byte " + (fileOffset + start));
+		}
+
+		if (position < end && (buffer.get(position) == 'e' || buffer.get(position) == 'E')) {
+			position++;
+			boolean negativeExponent = false;
+			if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+				negativeExponent = buffer.get(position) == '-';
+				position++;
+			}
+			int exponentStart = position;
+			int explicitExponent = 0;
+			while (position < end && buffer.get(position) >= '0' && buffer.get(position) <= '9') {
+				if (explicitExponent < 100_000) {
+					explicitExponent = explicitExponent * 10 + (buffer.get(position) - '0');
+				}
+				position++;
+			}
+			if (position == exponentStart) {
+				throw new IllegalArgumentException("Expected exponent digits at byte " + (fileOffset + position));
+			}
+			exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		}
+		cursor[0] = position;
+
+		if (truncated || mantissa > MAX_EXACT_MANTISSA || Math.abs(exponent) >= POWERS_OF_TEN.length) {
+			return parseDoubleExactly(buffer, start, position);
+		}
+
+		double value = mantissa;
+		if (exponent < 0) {
+			value /= POWERS_OF_TEN[-exponent];
+		} else if (exponent > 0) {
+			value *= POWERS_OF_TEN[exponent];
+		}
+		return negative ? -value : value;
+	}
+
+	private static double parseDoubleExactly(ByteBuffer buffer, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+	}
+
+	private interface ChunkParser {
+		List<Planet> parse(MappedByteBuffer buffer, long fileOffset);
+	}
+}
@@ -0,0 +1,276 @@
+package ch.obermuhlner.planetphysics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import ch.obermuhlner.planetphysics.math.MortonOrder;
+
+/**
+ * Fixed capacity storage of particle state outside of the java heap.
+ *
+ * Every particle uses {@value #BODY_SIZE} bytes with the layout
+ * <code>double x, double y, double speedX, double speedY, float mass, float hue</code>.
+ * The particles are stored in chunks of {@value #CHUNK_BODIES} particles so that more than 2 GB can be addressed.
+ *
+ * The storage is either a direct buffer or a memory mapped file that can be used as checkpoint.
+ */
+public class OffHeapParticles {
+
+	public static final int BODY_SIZE = 40;
+
+	private static final int CHUNK_BITS = 20;
+	public static final int CHUNK_BODIES = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_BODIES - 1;
+
+	private static final int OFFSET_X = 0;
+	private static final int OFFSET_Y = 8;
+	private static final int OFFSET_SPEED_X = 16;
+	private static final int OFFSET_SPEED_Y = 24;
+	private static final int OFFSET_MASS = 32;
+	private static final int OFFSET_HUE = 36;
+
+	private static final long MAGIC = 0x504c414e45543031L; // "PLANET01"
+	private static final int HEADER_SIZE = 64;
+
+	private final int capacity;
+	private final ByteBuffer header;
+	private final ByteBuffer[] chunks;
+	private int size;
+
+	private OffHeapParticles(int capacity, ByteBuffer header, ByteBuffer[] chunks) {
+		this.capacity = capacity;
+		this.header = header;
+		this.chunks = chunks;
+
+		if (header.getLong(0) == MAGIC) {
+			size = (int) Math.min(capacity, header.getLong(8));
+		}
+	}
+
+	/**
+	 * Allocates the storage in direct buffers.
+	 *
+	 * @param capacity the maximum number of particles
+	 * @return the created storage
+	 */
+	public static OffHeapParticles allocateDirect(int capacity) {
+		ByteBuffer header = ByteBuffer.allocateDirect(HEADER_SIZE).order(ByteOrder.nativeOrder());
+		ByteBuffer[] chunks = new ByteBuffer[chunkCount(capacity)];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = ByteBuffer.allocateDirect(chunkBodies(capacity, i) * BODY_SIZE).order(ByteOrder.nativeOrder());
+		}
+		return new OffHeapParticles(capacity, header, chunks);
+	}
+
+	/**
+	 * Maps the storage to a file.
+	 *
+	 * If the file already contains particles (for example from a previous run) they are loaded without copying.
+	 * Call {@link #force()} to write a consistent checkpoint.
+	 *
+	 * @param file the file to map
+	 * @param capacity the maximum number of particles
+	 * @return the created storage
+	 * @throws IOException if the file could not be mapped
+	 */
+	public static OffHeapParticles map(Path file, int capacity) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.order(ByteOrder.nativeOrder());
+			ByteBuffer[] chunks = new ByteBuffer[chunkCount(capacity)];
+			long position = HEADER_SIZE;
+			for (int i = 0; i < chunks.length; i++) {
+				long length = (long) chunkBodies(capacity, i) * BODY_SIZE;
+				chunks[i] = channel.map(MapMode.READ_WRITE, position, length).order(ByteOrder.nativeOrder());
+				position += length;
+			}
+			return new OffHeapParticles(capacity, header, chunks);
+		}
+	}
+
+	private static int chunkCount(int capacity) {
+		return (capacity + CHUNK_BODIES - 1) >>> CHUNK_BITS;
+	}
+
+	private static int chunkBodies(int capacity, int chunk) {
+		return Math.min(CHUNK_BODIES, capacity - (chunk << CHUNK_BITS));
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Adds a particle.
+	 *
+	 * @return the index of the added particle
+	 * @throws IllegalStateException if the capacity is exhausted
+	 */
+	public int add(double x, double y, double speedX, double speedY, double mass, double hue) {
+		if (size >= capacity) {
+			throw new IllegalStateException("Capacity exhausted: " + capacity);
+		}
+		int index = size++;
+		setPosition(index, x, y);
+		setSpeed(index, speedX, speedY);
+		ByteBuffer chunk = chunk(index);
+		int offset = offset(index);
+		chunk.putFloat(offset + OFFSET_MASS, (float) mass);
+		chunk.putFloat(offset + OFFSET_HUE, (float) hue);
+		return index;
+	}
+
+	/**
+	 * Removes a particle by moving the last particle into its place.
+	 *
+	 * @param index the index of the particle to remove
+	 */
+	public void remove(int index) {
+		int last = --size;
+		if (index != last) {
+			copy(last, index);
+		}
+	}
+
+	/**
+	 * Sorts the particles in Morton order of their position.
+	 *
+	 * The particles are permuted in place along the cycles of the permutation,
+	 * only the sorted indices and a flag per particle are allocated on the heap.
+	 */
+	public void reorder() {
+		int[] indices = MortonOrder.sortedIndices(this::getX, this::getY, size);
+		boolean[] placed = new boolean[size];
+		long[] saved = new long[BODY_SIZE / 8];
+
+		for (int start = 0; start < size; start++) {
+			if (placed[start]) {
+				continue;
+			}
+			ByteBuffer startChunk = chunk(start);
+			int startOffset = offset(start);
+			for (int i = 0; i < saved.length; i++) {
+				saved[i] = startChunk.getLong(startOffset + i * 8);
+			}
+
+			int target = start;
+			int source = indices[target];
+			while (source != start) {
+				copy(source, target);
+				placed[target] = true;
+				target = source;
+				source = indices[target];
+			}
+
+			ByteBuffer targetChunk = chunk(target);
+			int targetOffset = offset(target);
+			for (int i = 0; i < saved.length; i++) {
+				targetChunk.putLong(targetOffset + i * 8, saved[i]);
+			}
+			placed[target] = true;
+		}
+	}
+
+	private void copy(int sourceIndex, int targetIndex) {
+		ByteBuffer source = chunk(sourceIndex);
+		ByteBuffer target = chunk(targetIndex);
+		int sourceOffset = offset(sourceIndex);
+		int targetOffset = offset(targetIndex);
+		for (int i = 0; i < BODY_SIZE; i += 8) {
+			target.putLong(targetOffset + i, source.getLong(sourceOffset + i));
+		}
+	}
+
+	public double getX(int index) {
+		return chunk(index).getDouble(offset(index) + OFFSET_X);
+	}
+
+	public double getY(int index) {
+		return chunk(index).getDouble(offset(index) + OFFSET_Y);
+	}
+
+	public double getSpeedX(int index) {
+		return chunk(index).getDouble(offset(index) + OFFSET_SPEED_X);
+	}
+
+	public double getSpeedY(int index) {
+		return chunk(index).getDouble(offset(index) + OFFSET_SPEED_Y);
+	}
+
+	public double getMass(int index) {
+		return chunk(index).getFloat(offset(index) + OFFSET_MASS);
+	}
+
+	public double getHue(int index) {
+		return chunk(index).getFloat(offset(index) + OFFSET_HUE);
+	}
+
+	public void setPosition(int index, double x, double y) {
+		ByteBuffer chunk = chunk(index);
+		int offset = offset(index);
+		chunk.putDouble(offset + OFFSET_X, x);
+		chunk.putDouble(offset + OFFSET_Y, y);
+	}
+
+	public void setSpeed(int index, double speedX, double speedY) {
+		ByteBuffer chunk = chunk(index);
+		int offset = offset(index);
+		chunk.putDouble(offset + OFFSET_SPEED_X, speedX);
+		chunk.putDouble(offset + OFFSET_SPEED_Y, speedY);
+	}
+
+	/**
+	 * Returns the number of chunks that currently contain particles.
+	 *
+	 * Different chunks can be processed in parallel.
+	 *
+	 * @return the number of used chunks
+	 */
+	public int getUsedChunkCount() {
+		return chunkCount(size);
+	}
+
+	public int getChunkStart(int chunk) {
+		return chunk << CHUNK_BITS;
+	}
+
+	public int getChunkEnd(int chunk) {
+		return Math.min(size, (chunk + 1) << CHUNK_BITS);
+	}
+
+	/**
+	 * Writes the header and forces the content of a memory mapped storage to the file.
+	 */
+	public void force() {
+		header.putLong(0, MAGIC);
+		header.putLong(8, size);
+		if (header instanceof MappedByteBuffer) {
+			((MappedByteBuffer) header).force();
+			for (ByteBuffer chunk : chunks) {
+				((MappedByteBuffer) chunk).force();
+			}
+		}
+	}
+
+	private ByteBuffer chunk(int index) {
+		return chunks[index >>> CHUNK_BITS];
+	}
+
+	private static int offset(int index) {
+		return (index & CHUNK_MASK) * BODY_SIZE;
+	}
+}
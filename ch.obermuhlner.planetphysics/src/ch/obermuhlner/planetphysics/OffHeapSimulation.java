@@ -0,0 +1,231 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import ch.obermuhlner.planetphysics.math.Vector2;
+
+/**
+ * Simulation that keeps the state of the weightless planets in {@link OffHeapParticles}.
+ *
+ * The massive planets are simulated by an internal {@link BruteForceSimulation},
+ * the weightless particles are integrated in parallel chunks directly in the off-heap storage
+ * and never create garbage for the collector.
+ *
+ * {@link #getWeightlessPlanets()} returns a read-only view that creates a {@link Planet} snapshot per visited particle,
+ * weightless particles have no tails and are always absorbed when they collide with a massive planet.
+ */
+public class OffHeapSimulation implements Simulation {
+
+	private final BruteForceSimulation massiveSimulation = new BruteForceSimulation();
+	private final OffHeapParticles particles;
+
+	private boolean collisions = true;
+	private double weightLessThreshold = 0.0;
+	private int reorderInterval;
+	private int stepsSinceReorder;
+
+	public OffHeapSimulation(int capacity) {
+		this(OffHeapParticles.allocateDirect(capacity));
+	}
+
+	public OffHeapSimulation(OffHeapParticles particles) {
+		this.particles = particles;
+		massiveSimulation.setWeightLessThreshold(Double.NEGATIVE_INFINITY);
+	}
+
+	public OffHeapParticles getParticles() {
+		return particles;
+	}
+
+	@Override
+	public void setCollisions(boolean collisions) {
+		this.collisions = collisions;
+		massiveSimulation.setCollisions(collisions);
+	}
+
+	@Override
+	public void setGravity(double gravity) {
+		massiveSimulation.setGravity(gravity);
+	}
+
+	@Override
+	public double getGravity() {
+		return massiveSimulation.getGravity();
+	}
+
+	public void setWeightLessThreshold(double weightLessThreshold) {
+		this.weightLessThreshold = weightLessThreshold;
+	}
+
+	/**
+	 * Sets the number of steps after which the weightless particles are sorted in Morton order of their position.
+	 *
+	 * @param reorderInterval the number of steps, 0 to disable reordering
+	 */
+	public void setReorderInterval(int reorderInterval) {
+		this.reorderInterval = reorderInterval;
+	}
+
+	@Override
+	public void clear() {
+		massiveSimulation.clear();
+		particles.clear();
+	}
+
+	@Override
+	public void add(Planet planet) {
+		if (planet.getMass() <= weightLessThreshold) {
+			Vector2 position = planet.getPosition();
+			Vector2 speed = planet.getSpeed();
+			particles.add(position.x, position.y, speed.x, speed.y, planet.getMass(), planet.getHue());
+		} else {
+			massiveSimulation.add(planet);
+		}
+	}
+
+	@Override
+	public Collection<Planet> getPlanets() {
+		return massiveSimulation.getPlanets();
+	}
+
+	@Override
+	public Collection<Planet> getWeightlessPlanets() {
+		return new AbstractCollection<Planet>() {
+			@Override
+			public Iterator<Planet> iterator() {
+				return new Iterator<Planet>() {
+					private int index;
+
+					@Override
+					public boolean hasNext() {
+						return index < particles.size();
+					}
+
+					@Override
+					public Planet next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						return toPlanet(index++);
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return particles.size();
+			}
+		};
+	}
+
+	private Planet toPlanet(int index) {
+		return new Planet(
+				Vector2.of(particles.getX(index), particles.getY(index)),
+				Vector2.of(particles.getSpeedX(index), particles.getSpeedY(index)),
+				particles.getMass(index),
+				particles.getHue(index));
+	}
+
+	@Override
+	public ConservedQuantities getConservedQuantities() {
+		return massiveSimulation.getConservedQuantities();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The absorbed particles are reported as new {@link Planet} snapshots.
+	 */
+	@Override
+	public CollisionEventStream getCollisionEvents() {
+		return massiveSimulation.getCollisionEvents();
+	}
+
+	@Override
+	public void simulateStep(double deltaTime, int tailLength) {
+		if (reorderInterval > 0 && ++stepsSinceReorder >= reorderInterval) {
+			stepsSinceReorder = 0;
+			particles.reorder();
+		}
+
+		List<Planet> sources = new ArrayList<>(massiveSimulation.getPlanets());
+		int sourceCount = sources.size();
+		double[] sourceX = new double[sourceCount];
+		double[] sourceY = new double[sourceCount];
+		double[] sourceGravity = new double[sourceCount];
+		double[] sourceRadius = new double[sourceCount];
+		for (int j = 0; j < sourceCount; j++) {
+			Planet source = sources.get(j);
+			sourceX[j] = source.getPosition().x;
+			sourceY[j] = source.getPosition().y;
+			sourceGravity[j] = massiveSimulation.getGravity() * source.getMass();
+			sourceRadius[j] = source.getRadius();
+		}
+
+		List<int[]> chunkCollisions = IntStream.range(0, particles.getUsedChunkCount()).parallel()
+				.mapToObj(chunk -> {
+					int[] collided = new int[16];
+					int collidedCount = 0;
+					for (int i = particles.getChunkStart(chunk); i < particles.getChunkEnd(chunk); i++) {
+						double x = particles.getX(i);
+						double y = particles.getY(i);
+						double radius = Math.sqrt(particles.getMass(i));
+						double accelerationX = 0;
+						double accelerationY = 0;
+						int partner = -1;
+						for (int j = 0; j < sourceCount; j++) {
+							double deltaX = sourceX[j] - x;
+							double deltaY = sourceY[j] - y;
+							double distanceSquared = deltaX * deltaX + deltaY * deltaY;
+							double distance = Math.sqrt(distanceSquared);
+							if (collisions && distance < radius + sourceRadius[j]) {
+								partner = j;
+								break;
+							}
+							double magnitude = sourceGravity[j] / (distanceSquared * distance);
+							accelerationX += deltaX * magnitude;
+							accelerationY += deltaY * magnitude;
+						}
+
+						if (partner >= 0) {
+							if (collidedCount + 2 > collided.length) {
+								collided = Arrays.copyOf(collided, collided.length * 2);
+							}
+							collided[collidedCount++] = i;
+							collided[collidedCount++] = partner;
+						} else {
+							double speedX = particles.getSpeedX(i) + accelerationX * deltaTime;
+							double speedY = particles.getSpeedY(i) + accelerationY * deltaTime;
+							particles.setSpeed(i, speedX, speedY);
+							particles.setPosition(i, x + speedX * deltaTime, y + speedY * deltaTime);
+						}
+					}
+					return Arrays.copyOf(collided, collidedCount);
+				})
+				.collect(Collectors.toList());
+
+		// the massive simulation only starts counting this step afterwards
+		CollisionEventStream collisionEvents = massiveSimulation.getCollisionEvents();
+		long step = collisionEvents.getStep() + 1;
+
+		// remove from the end so that the particle moved into a removed slot was already processed
+		for (int chunk = chunkCollisions.size() - 1; chunk >= 0; chunk--) {
+			int[] collided = chunkCollisions.get(chunk);
+			for (int k = collided.length - 2; k >= 0; k -= 2) {
+				int index = collided[k];
+				collisionEvents.merge(sources.get(collided[k + 1]), toPlanet(index), step);
+				particles.remove(index);
+			}
+		}
+
+		massiveSimulation.simulateStep(deltaTime, tailLength);
+	}
+}
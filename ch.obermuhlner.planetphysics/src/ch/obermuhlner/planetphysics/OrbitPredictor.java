@@ -0,0 +1,180 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ch.obermuhlner.planetphysics.math.Vector2;
+
+/**
+ * Predicts the path of a candidate planet on a background thread.
+ *
+ * The candidate is integrated as test particle against a copy of the massive planets of a simulation,
+ * the massive planets stay at their copied positions.
+ * Only the copy is made by the calling thread, starting a new prediction cancels the running one.
+ * The path is published in chunks while the prediction runs, so that long predictions become visible early.
+ */
+public class OrbitPredictor implements AutoCloseable {
+
+	private static final int PUBLISH_INTERVAL = 256;
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "OrbitPredictor");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Runnable listener;
+
+	private int steps = 5000;
+	private int stepsPerPoint = 5;
+
+	private Future<?> running;
+	private long generation;
+	private volatile double[] path = new double[0];
+
+	/**
+	 * Creates an orbit predictor.
+	 *
+	 * @param listener called by the background thread whenever a new (partial) path is available
+	 */
+	public OrbitPredictor(Runnable listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets the length of the predicted path.
+	 *
+	 * @param steps the number of simulated steps
+	 * @param stepsPerPoint the number of simulated steps between two points of the path
+	 */
+	public void setSteps(int steps, int stepsPerPoint) {
+		this.steps = steps;
+		this.stepsPerPoint = stepsPerPoint;
+	}
+
+	/**
+	 * Starts predicting the path of a candidate planet, cancelling the running prediction.
+	 *
+	 * @param simulation the simulation with the massive planets, only read by the calling thread
+	 * @param position the position of the candidate
+	 * @param speed the speed of the candidate
+	 * @param mass the mass of the candidate, only used to detect collisions
+	 * @param deltaTime the time step
+	 */
+	public synchronized void predict(Simulation simulation, Vector2 position, Vector2 speed, double mass, double deltaTime) {
+		// keep the old path until the new prediction publishes its first points
+		cancelRunning();
+
+		Collection<Planet> planets = simulation.getPlanets();
+		int capacity = planets.size();
+		double[] planetX = new double[capacity];
+		double[] planetY = new double[capacity];
+		double[] planetMass = new double[capacity];
+		double[] planetRadius = new double[capacity];
+		int count = 0;
+		for (Planet planet : planets) {
+			if (count < capacity && !planet.isDeleted()) {
+				planetX[count] = planet.getPosition().x;
+				planetY[count] = planet.getPosition().y;
+				planetMass[count] = planet.getMass();
+				planetRadius[count] = planet.getRadius();
+				count++;
+			}
+		}
+
+		int planetCount = count;
+		double gravity = simulation.getGravity();
+		double radius = Math.sqrt(mass);
+		int predictionSteps = steps;
+		int predictionStepsPerPoint = stepsPerPoint;
+		long predictionGeneration = generation;
+
+		running = executor.submit(() -> {
+			double[] points = new double[(predictionSteps / predictionStepsPerPoint + 1) * 2];
+			int pointCount = 0;
+			double x = position.x;
+			double y = position.y;
+			double speedX = speed.x;
+			double speedY = speed.y;
+			points[pointCount++] = x;
+			points[pointCount++] = y;
+
+			for (int step = 1; step <= predictionSteps; step++) {
+				double accelerationX = 0;
+				double accelerationY = 0;
+				for (int i = 0; i < planetCount; i++) {
+					double deltaX = x - planetX[i];
+					double deltaY = y - planetY[i];
+					double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+					if (distance < radius + planetRadius[i]) {
+						publish(predictionGeneration, points, pointCount);
+						return;
+					}
+					double magnitude = -gravity * planetMass[i] / (distance * distance * distance);
+					accelerationX += deltaX * magnitude;
+					accelerationY += deltaY * magnitude;
+				}
+				speedX += accelerationX * deltaTime;
+				speedY += accelerationY * deltaTime;
+				x += speedX * deltaTime;
+				y += speedY * deltaTime;
+
+				if (step % predictionStepsPerPoint == 0) {
+					points[pointCount++] = x;
+					points[pointCount++] = y;
+				}
+				if (step % PUBLISH_INTERVAL == 0) {
+					if (Thread.currentThread().isInterrupted()) {
+						return;
+					}
+					publish(predictionGeneration, points, pointCount);
+				}
+			}
+			publish(predictionGeneration, points, pointCount);
+		});
+	}
+
+	private void publish(long predictionGeneration, double[] points, int pointCount) {
+		synchronized (this) {
+			if (predictionGeneration != generation) {
+				return;
+			}
+			path = Arrays.copyOf(points, pointCount);
+		}
+		listener.run();
+	}
+
+	/**
+	 * Cancels the running prediction and removes the predicted path.
+	 */
+	public synchronized void cancel() {
+		cancelRunning();
+		path = new double[0];
+	}
+
+	private void cancelRunning() {
+		if (running != null) {
+			running.cancel(true);
+			running = null;
+		}
+		generation++;
+	}
+
+	/**
+	 * Returns the latest predicted path.
+	 *
+	 * @return the x and y coordinates of the points of the path, empty if there is no prediction
+	 */
+	public double[] getPath() {
+		return path;
+	}
+
+	@Override
+	public void close() {
+		cancel();
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,385 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ch.obermuhlner.planetphysics.math.FastFourierTransform;
+import ch.obermuhlner.planetphysics.math.Vector2;
+
+/**
+ * Particle-mesh simulation that calculates the gravity field on a grid.
+ *
+ * The masses are deposited with cloud-in-cell assignment onto a grid covering all bodies,
+ * convolved with the gravity kernel using a zero-padded fast fourier transform
+ * and the resulting accelerations are interpolated back to the bodies.
+ *
+ * With the short-range correction (P3M) the mesh only carries the smooth long-range part of the force
+ * and the short-range part is summed directly over the neighbors of every body.
+ *
+ * The potential energy is interpolated from a potential grid that is solved together with the field,
+ * without the potential of every planet's own cloud.
+ */
+public class ParticleMeshSimulation extends AbstractSimulation {
+
+	private static final double SOFTENING_CELLS = 1.0;
+	private static final double SPLIT_RADIUS_CELLS = 1.25;
+	private static final double CUTOFF_RADIUS_CELLS = 4.5 * SPLIT_RADIUS_CELLS;
+
+	private int gridSize = 128;
+	private boolean shortRangeCorrection = false;
+
+	private FastFourierTransform fft;
+	private boolean kernelShortRangeCorrection;
+	private double[] kernelXReal;
+	private double[] kernelXImaginary;
+	private double[] kernelYReal;
+	private double[] kernelYImaginary;
+	private double[] kernelPotentialReal;
+	private double[] kernelPotentialImaginary;
+	private double selfPotential0;
+	private double selfPotential1;
+	private double selfPotential2;
+
+	private double[] fieldXReal;
+	private double[] fieldXImaginary;
+	private double[] fieldYReal;
+	private double[] fieldYImaginary;
+	private double[] potentialReal;
+	private double[] potentialImaginary;
+
+	private double originX;
+	private double originY;
+	private double cellSize;
+
+	private Planet[] sources = new Planet[0];
+	private int[] binHead = new int[0];
+	private int[] binNext = new int[0];
+	private int binCount;
+	private double binSize;
+
+	/**
+	 * Sets the number of grid cells along each axis.
+	 *
+	 * @param gridSize the grid size, must be a power of 2
+	 */
+	public void setGridSize(int gridSize) {
+		if (gridSize < 4 || Integer.bitCount(gridSize) != 1) {
+			throw new IllegalArgumentException("Grid size must be a power of 2 and at least 4: " + gridSize);
+		}
+		this.gridSize = gridSize;
+	}
+
+	public void setShortRangeCorrection(boolean shortRangeCorrection) {
+		this.shortRangeCorrection = shortRangeCorrection;
+	}
+
+	@Override
+	public void simulateStep(double deltaTime, int tailLength) {
+		collisionEvents.nextStep();
+
+		beginConservedQuantities();
+		if (planets.isEmpty() && weightlessPlanets.isEmpty()) {
+			endConservedQuantities();
+			return;
+		}
+
+		prepareKernel();
+		prepareGrid();
+		depositMasses();
+		solveField();
+		prepareNeighbors();
+
+		for (Planet planet : planets) {
+			calculateGravity(planet, deltaTime, true);
+		}
+		endConservedQuantities();
+		for (Planet planet : weightlessPlanets) {
+			calculateGravity(planet, deltaTime, false);
+		}
+
+		updatePosition(planets, deltaTime, tailLength);
+		updatePosition(weightlessPlanets, deltaTime, tailLength);
+	}
+
+	private void prepareKernel() {
+		int paddedSize = gridSize * 2;
+		if (fft != null && fft.getSize() == paddedSize && kernelShortRangeCorrection == shortRangeCorrection) {
+			return;
+		}
+
+		fft = new FastFourierTransform(paddedSize);
+		kernelShortRangeCorrection = shortRangeCorrection;
+
+		int length = paddedSize * paddedSize;
+		kernelXReal = new double[length];
+		kernelXImaginary = new double[length];
+		kernelYReal = new double[length];
+		kernelYImaginary = new double[length];
+		kernelPotentialReal = new double[length];
+		kernelPotentialImaginary = new double[length];
+		fieldXReal = new double[length];
+		fieldXImaginary = new double[length];
+		fieldYReal = new double[length];
+		fieldYImaginary = new double[length];
+		potentialReal = new double[length];
+		potentialImaginary = new double[length];
+
+		// kernel for unit gravity and unit cell size, scaled when the field is interpolated
+		for (int row = 0; row < paddedSize; row++) {
+			int dy = row < gridSize ? row : row - paddedSize;
+			for (int column = 0; column < paddedSize; column++) {
+				int dx = column < gridSize ? column : column - paddedSize;
+				double distanceSquared = dx * dx + dy * dy;
+				double magnitude;
+				if (distanceSquared == 0) {
+					magnitude = 0;
+				} else if (shortRangeCorrection) {
+					double distance = Math.sqrt(distanceSquared);
+					magnitude = -longRangeFactor(distance) / (distanceSquared * distance);
+				} else {
+					double softenedSquared = distanceSquared + SOFTENING_CELLS * SOFTENING_CELLS;
+					magnitude = -1.0 / (softenedSquared * Math.sqrt(softenedSquared));
+				}
+				kernelXReal[row * paddedSize + column] = dx * magnitude;
+				kernelYReal[row * paddedSize + column] = dy * magnitude;
+				kernelPotentialReal[row * paddedSize + column] = potentialKernel(distanceSquared);
+			}
+		}
+		selfPotential0 = potentialKernel(0);
+		selfPotential1 = potentialKernel(1);
+		selfPotential2 = potentialKernel(2);
+
+		fft.transform2D(kernelXReal, kernelXImaginary, false);
+		fft.transform2D(kernelYReal, kernelYImaginary, false);
+		fft.transform2D(kernelPotentialReal, kernelPotentialImaginary, false);
+	}
+
+	/**
+	 * Returns the potential of a unit mass for unit gravity and unit cell size, consistent with the force kernel.
+	 *
+	 * @param distanceSquared the squared distance in grid cells
+	 * @return the potential
+	 */
+	private double potentialKernel(double distanceSquared) {
+		if (shortRangeCorrection) {
+			if (distanceSquared == 0) {
+				return -1.0 / (Math.sqrt(Math.PI) * SPLIT_RADIUS_CELLS);
+			}
+			double distance = Math.sqrt(distanceSquared);
+			return -(1.0 - erfc(distance / (2 * SPLIT_RADIUS_CELLS))) / distance;
+		}
+		return -1.0 / Math.sqrt(distanceSquared + SOFTENING_CELLS * SOFTENING_CELLS);
+	}
+
+	private void prepareGrid() {
+		double minX = Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		for (List<Planet> list : Arrays.asList(planets, weightlessPlanets)) {
+			for (Planet planet : list) {
+				Vector2 position = planet.getPosition();
+				minX = Math.min(minX, position.x);
+				minY = Math.min(minY, position.y);
+				maxX = Math.max(maxX, position.x);
+				maxY = Math.max(maxY, position.y);
+			}
+		}
+
+		// keep one cell of margin on every side for the cloud-in-cell stencil
+		cellSize = Math.max(Math.max(maxX - minX, maxY - minY) / (gridSize - 3), 1e-9);
+		originX = minX - cellSize;
+		originY = minY - cellSize;
+	}
+
+	private void depositMasses() {
+		Arrays.fill(fieldXReal, 0);
+		Arrays.fill(fieldXImaginary, 0);
+
+		int paddedSize = gridSize * 2;
+		for (Planet planet : planets) {
+			double gridX = (planet.getPosition().x - originX) / cellSize;
+			double gridY = (planet.getPosition().y - originY) / cellSize;
+			int column = (int) gridX;
+			int row = (int) gridY;
+			double weightX = gridX - column;
+			double weightY = gridY - row;
+			double mass = planet.getMass();
+
+			int index = row * paddedSize + column;
+			fieldXReal[index] += mass * (1 - weightX) * (1 - weightY);
+			fieldXReal[index + 1] += mass * weightX * (1 - weightY);
+			fieldXReal[index + paddedSize] += mass * (1 - weightX) * weightY;
+			fieldXReal[index + paddedSize + 1] += mass * weightX * weightY;
+		}
+	}
+
+	private void solveField() {
+		fft.transform2D(fieldXReal, fieldXImaginary, false);
+
+		for (int i = 0; i < fieldXReal.length; i++) {
+			double densityReal = fieldXReal[i];
+			double densityImaginary = fieldXImaginary[i];
+			fieldXReal[i] = densityReal * kernelXReal[i] - densityImaginary * kernelXImaginary[i];
+			fieldXImaginary[i] = densityReal * kernelXImaginary[i] + densityImaginary * kernelXReal[i];
+			fieldYReal[i] = densityReal * kernelYReal[i] - densityImaginary * kernelYImaginary[i];
+			fieldYImaginary[i] = densityReal * kernelYImaginary[i] + densityImaginary * kernelYReal[i];
+			potentialReal[i] = densityReal * kernelPotentialReal[i] - densityImaginary * kernelPotentialImaginary[i];
+			potentialImaginary[i] = densityReal * kernelPotentialImaginary[i] + densityImaginary * kernelPotentialReal[i];
+		}
+
+		fft.transform2D(fieldXReal, fieldXImaginary, true);
+		fft.transform2D(fieldYReal, fieldYImaginary, true);
+		fft.transform2D(potentialReal, potentialImaginary, true);
+	}
+
+	private void prepareNeighbors() {
+		double maxRadius = 0;
+		if (collisions) {
+			for (Planet planet : planets) {
+				maxRadius = Math.max(maxRadius, planet.getRadius());
+			}
+			for (Planet planet : weightlessPlanets) {
+				maxRadius = Math.max(maxRadius, planet.getRadius());
+			}
+		}
+		double neighborDistance = Math.max(shortRangeCorrection ? CUTOFF_RADIUS_CELLS * cellSize : 0, maxRadius * 2);
+		if (neighborDistance == 0) {
+			binCount = 0;
+			return;
+		}
+
+		binSize = Math.max(neighborDistance, cellSize);
+		binCount = (int) (gridSize * cellSize / binSize) + 2;
+		if (binHead.length < binCount * binCount) {
+			binHead = new int[binCount * binCount];
+		}
+		Arrays.fill(binHead, 0, binCount * binCount, -1);
+
+		sources = planets.toArray(sources);
+		if (binNext.length < planets.size()) {
+			binNext = new int[planets.size()];
+		}
+		for (int i = 0; i < planets.size(); i++) {
+			int bin = binIndex(toBin(sources[i].getPosition().x, originX), toBin(sources[i].getPosition().y, originY));
+			binNext[i] = binHead[bin];
+			binHead[bin] = i;
+		}
+	}
+
+	private int toBin(double value, double origin) {
+		return Math.min(binCount - 1, Math.max(0, (int) ((value - origin) / binSize)));
+	}
+
+	private int binIndex(int binX, int binY) {
+		return binY * binCount + binX;
+	}
+
+	/**
+	 * Calculates the gravity on a planet and updates its speed.
+	 *
+	 * @param conserved <code>true</code> to add the planet to the conserved quantities, only for planets that were deposited on the grid
+	 */
+	private void calculateGravity(Planet planet, double deltaTime, boolean conserved) {
+		if (planet.isDeleted()) {
+			return;
+		}
+
+		Vector2 position = planet.getPosition();
+		double gridX = (position.x - originX) / cellSize;
+		double gridY = (position.y - originY) / cellSize;
+		int column = (int) gridX;
+		int row = (int) gridY;
+		double weightX = gridX - column;
+		double weightY = gridY - row;
+		int paddedSize = gridSize * 2;
+		int index = row * paddedSize + column;
+
+		double scale = gravity / (cellSize * cellSize);
+		double accelerationX = scale * interpolate(fieldXReal, index, paddedSize, weightX, weightY);
+		double accelerationY = scale * interpolate(fieldYReal, index, paddedSize, weightX, weightY);
+		double potential = 0;
+		if (conserved) {
+			// the cloud of the planet itself is spread over the same four nodes with the same weights
+			double sameX = (1 - weightX) * (1 - weightX) + weightX * weightX;
+			double sameY = (1 - weightY) * (1 - weightY) + weightY * weightY;
+			double crossX = 2 * weightX * (1 - weightX);
+			double crossY = 2 * weightY * (1 - weightY);
+			double selfPotential = planet.getMass() * (selfPotential0 * sameX * sameY + selfPotential1 * (crossX * sameY + sameX * crossY) + selfPotential2 * crossX * crossY);
+			potential = gravity / cellSize * (interpolate(potentialReal, index, paddedSize, weightX, weightY) - selfPotential);
+		}
+
+		if (binCount > 0) {
+			double cutoff = shortRangeCorrection ? CUTOFF_RADIUS_CELLS * cellSize : 0;
+			int binX = toBin(position.x, originX);
+			int binY = toBin(position.y, originY);
+			for (int neighborY = Math.max(0, binY - 1); neighborY <= Math.min(binCount - 1, binY + 1); neighborY++) {
+				for (int neighborX = Math.max(0, binX - 1); neighborX <= Math.min(binCount - 1, binX + 1); neighborX++) {
+					for (int i = binHead[binIndex(neighborX, neighborY)]; i >= 0; i = binNext[i]) {
+						Planet other = sources[i];
+						if (other == planet || other.isDeleted()) {
+							continue;
+						}
+						double deltaX = other.getPosition().x - position.x;
+						double deltaY = other.getPosition().y - position.y;
+						double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+						if (collisions && distance < planet.getRadius() + other.getRadius()) {
+							if (planet.getMass() == 0.0) {
+								collisionEvents.merge(other, planet);
+								return;
+							} else {
+								collisionEvents.merge(planet, other);
+							}
+						} else if (distance < cutoff) {
+							double magnitude = gravity * other.getMass() * (1.0 - longRangeFactor(distance / cellSize)) / (distance * distance * distance);
+							accelerationX += deltaX * magnitude;
+							accelerationY += deltaY * magnitude;
+							potential -= gravity * other.getMass() * erfc(distance / cellSize / (2 * SPLIT_RADIUS_CELLS)) / distance;
+						}
+					}
+				}
+			}
+		}
+
+		if (conserved) {
+			// every pair is visited twice
+			Vector2 speed = planet.getSpeed();
+			addConservedQuantities(planet.getMass(), position.x, position.y, speed.x, speed.y);
+			addPotentialEnergy(0.5 * planet.getMass() * potential);
+		}
+
+		planet.setSpeed(planet.getSpeed().addScaled(accelerationX, accelerationY, deltaTime));
+	}
+
+	private static double interpolate(double[] field, int index, int paddedSize, double weightX, double weightY) {
+		return field[index] * (1 - weightX) * (1 - weightY)
+				+ field[index + 1] * weightX * (1 - weightY)
+				+ field[index + paddedSize] * (1 - weightX) * weightY
+				+ field[index + paddedSize + 1] * weightX * weightY;
+	}
+
+	/**
+	 * Returns the fraction of the newtonian force that is carried by the mesh at the specified distance.
+	 *
+	 * @param distanceCells the distance in grid cells
+	 * @return the long-range fraction between 0.0 and 1.0
+	 */
+	private static double longRangeFactor(double distanceCells) {
+		double u = distanceCells / (2 * SPLIT_RADIUS_CELLS);
+		return 1.0 - erfc(u) - 2 * u / Math.sqrt(Math.PI) * Math.exp(-u * u);
+	}
+
+	private static double erfc(double x) {
+		// Abramowitz and Stegun 7.1.26, absolute error below 1.5e-7
+		double t = 1.0 / (1.0 + 0.3275911 * x);
+		double polynomial = t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429))));
+		return polynomial * Math.exp(-x * x);
+	}
+
+	private void updatePosition(List<Planet> planets, double deltaTime, int tailLength) {
+		removeDeleted(planets);
+		for (Planet planet : planets) {
+			planet.setPosition(planet.getPosition().addScaled(planet.getSpeed(), deltaTime), tailLength);
+		}
+	}
+}
@@ -45,7 +45,10 @@ public class Planet {
 		}
 		name = mass > other.mass ? name : other.name;
 		hue = mass > other.mass ? hue : other.hue;
-		speed = speed.multiply(mass).add(other.speed.multiply(other.mass)).divide(mass + other.mass);
+		double totalMass = mass + other.mass;
+		speed = Vector2.of(
+				(speed.x * mass + other.speed.x * other.mass) / totalMass,
+				(speed.y * mass + other.speed.y * other.mass) / totalMass);
 		mass += other.mass;
 		radius = Math.sqrt(mass);		
 	}
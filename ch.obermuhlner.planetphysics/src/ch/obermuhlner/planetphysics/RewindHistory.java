@@ -0,0 +1,308 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import ch.obermuhlner.planetphysics.math.Vector2;
+
+/**
+ * Bounded in-memory history of a {@link Simulation} that allows to rewind to earlier steps.
+ *
+ * Every {@link #setSnapshotInterval(int) snapshot interval} steps the state of all planets is stored in compact arrays.
+ * Mass, hue and names rarely change, consecutive snapshots share these arrays until a collision changes them.
+ * The time steps between two snapshots are recorded as well, so that {@link #seek(Simulation, long, int)}
+ * restores the nearest earlier snapshot and re-simulates forward with the same time steps.
+ *
+ * The oldest snapshots are evicted when the memory budget is exceeded.
+ * Tails are not stored and start empty after a rewind.
+ *
+ * The merge count of the {@link CollisionEventStream} is restored as well, the replayed merges are not published again.
+ */
+public class RewindHistory {
+
+	private final Deque<Snapshot> snapshots = new ArrayDeque<>();
+
+	private int snapshotInterval = 50;
+	private long memoryBudget = 64 * 1024 * 1024;
+	private long memoryUsage;
+
+	public void setSnapshotInterval(int snapshotInterval) {
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	/**
+	 * Sets the maximum number of bytes used by the snapshots.
+	 *
+	 * The newest snapshot is always kept, even if it exceeds the budget.
+	 *
+	 * @param memoryBudget the memory budget in bytes
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		evict();
+	}
+
+	public long getMemoryUsage() {
+		return memoryUsage;
+	}
+
+	public void clear() {
+		snapshots.clear();
+		memoryUsage = 0;
+	}
+
+	/**
+	 * Returns the oldest step that can be restored.
+	 *
+	 * @return the oldest step or -1 if the history is empty
+	 */
+	public long getOldestStep() {
+		return snapshots.isEmpty() ? -1 : snapshots.getFirst().step;
+	}
+
+	/**
+	 * Returns the newest step that can be restored.
+	 *
+	 * @return the newest step or -1 if the history is empty
+	 */
+	public long getNewestStep() {
+		return snapshots.isEmpty() ? -1 : snapshots.getLast().getLastStep();
+	}
+
+	/**
+	 * Records the state after a simulated step.
+	 *
+	 * Recording a step that is not newer than the newest recorded step (for example after {@link #seek(Simulation, long, int)})
+	 * discards the newer history.
+	 *
+	 * @param simulation the simulation
+	 * @param step the number of the simulated step, 0 for the initial state
+	 * @param time the simulated time after the step
+	 * @param deltaTime the time step that was used to simulate the step
+	 */
+	public void record(Simulation simulation, long step, double time, double deltaTime) {
+		truncate(step - 1);
+
+		Snapshot last = snapshots.peekLast();
+		if (last != null && last.getLastStep() == step - 1 && step - last.step < snapshotInterval) {
+			last.addDeltaTime(deltaTime);
+			memoryUsage += 8;
+			evict();
+		} else {
+			addSnapshot(simulation, step, time, deltaTime);
+		}
+	}
+
+	/**
+	 * Records a snapshot of the current state, for example after the planets of the simulation were modified between two steps.
+	 *
+	 * Discards the history of the same and newer steps.
+	 *
+	 * @param simulation the simulation
+	 * @param step the number of the current step
+	 * @param time the current simulated time
+	 */
+	public void snapshot(Simulation simulation, long step, double time) {
+		truncate(step - 1);
+		addSnapshot(simulation, step, time, Double.NaN);
+	}
+
+	private void addSnapshot(Simulation simulation, long step, double time, double deltaTime) {
+		Snapshot last = snapshots.peekLast();
+		Snapshot snapshot = new Snapshot(step, time, deltaTime, simulation, last);
+		snapshots.addLast(snapshot);
+		memoryUsage += snapshot.memoryUsage;
+		evict();
+	}
+
+	/**
+	 * Restores the state of the simulation at the specified step.
+	 *
+	 * @param simulation the simulation to restore
+	 * @param step the step to restore
+	 * @param tailLength the length of the tails to record while simulating forward
+	 * @return the simulated time at the restored step
+	 * @throws IllegalArgumentException if the step is not in the history
+	 */
+	public double seek(Simulation simulation, long step, int tailLength) {
+		Snapshot snapshot = null;
+		Iterator<Snapshot> iterator = snapshots.descendingIterator();
+		while (iterator.hasNext()) {
+			Snapshot candidate = iterator.next();
+			if (candidate.step <= step) {
+				snapshot = candidate;
+				break;
+			}
+		}
+		if (snapshot == null || step > snapshot.getLastStep()) {
+			throw new IllegalArgumentException("Step " + step + " is not in the history: " + getOldestStep() + " - " + getNewestStep());
+		}
+
+		simulation.clear();
+		simulation.addAll(snapshot.createPlanets());
+
+		CollisionEventStream collisionEvents = simulation.getCollisionEvents();
+		boolean suspended = collisionEvents.isSuspended();
+		collisionEvents.setMergeCount(snapshot.mergeCount);
+		collisionEvents.setSuspended(true);
+		double time = snapshot.time;
+		try {
+			for (int i = 0; i < step - snapshot.step; i++) {
+				simulation.simulateStep(snapshot.deltaTimes[i], tailLength);
+				time += snapshot.deltaTimes[i];
+			}
+		} finally {
+			collisionEvents.setSuspended(suspended);
+		}
+		return time;
+	}
+
+	/**
+	 * Returns the time step that was used to simulate the specified step.
+	 *
+	 * @param step the simulated step, after the oldest step
+	 * @return the time step from the previous step to the specified step,
+	 * 	or NaN if the planets were modified at this step and the state can only be restored with {@link #seek(Simulation, long, int)}
+	 * @throws IllegalArgumentException if the step is not in the history
+	 */
+	public double getDeltaTime(long step) {
+		Iterator<Snapshot> iterator = snapshots.descendingIterator();
+		while (iterator.hasNext()) {
+			Snapshot snapshot = iterator.next();
+			if (snapshot.step == step && step > getOldestStep()) {
+				return snapshot.deltaTime;
+			}
+			if (snapshot.step < step && step <= snapshot.getLastStep()) {
+				return snapshot.deltaTimes[(int) (step - snapshot.step - 1)];
+			}
+		}
+		throw new IllegalArgumentException("Step " + step + " is not in the history: " + getOldestStep() + " - " + getNewestStep());
+	}
+
+	private void truncate(long step) {
+		while (!snapshots.isEmpty() && snapshots.getLast().step > step) {
+			memoryUsage -= snapshots.removeLast().memoryUsage;
+		}
+		Snapshot last = snapshots.peekLast();
+		if (last != null && last.getLastStep() > step) {
+			memoryUsage -= last.truncateDeltaTimes((int) (step - last.step));
+		}
+	}
+
+	private void evict() {
+		while (snapshots.size() > 1 && memoryUsage > memoryBudget) {
+			Snapshot evicted = snapshots.removeFirst();
+			memoryUsage -= evicted.memoryUsage;
+			Snapshot next = snapshots.getFirst();
+			if (next.sharesProperties) {
+				// the next snapshot now owns the shared arrays
+				next.sharesProperties = false;
+				next.memoryUsage += next.propertiesMemoryUsage();
+				memoryUsage += next.propertiesMemoryUsage();
+			}
+		}
+	}
+
+	private static class Snapshot {
+		final long step;
+		final double time;
+		final double deltaTime;
+		final long mergeCount;
+		final double[] positionSpeed;
+		final double[] mass;
+		final double[] hue;
+		final String[] name;
+		boolean sharesProperties;
+		double[] deltaTimes = new double[0];
+		int deltaTimeCount;
+		long memoryUsage;
+
+		Snapshot(long step, double time, double deltaTime, Simulation simulation, Snapshot previous) {
+			this.step = step;
+			this.time = time;
+			this.deltaTime = deltaTime;
+			this.mergeCount = simulation.getCollisionEvents().getMergeCount();
+
+			Collection<Planet> planets = simulation.getPlanets();
+			Collection<Planet> weightlessPlanets = simulation.getWeightlessPlanets();
+			int count = planets.size() + weightlessPlanets.size();
+			positionSpeed = new double[count * 4];
+			double[] newMass = new double[count];
+			double[] newHue = new double[count];
+			String[] newName = new String[count];
+
+			int i = 0;
+			for (Collection<Planet> collection : Arrays.asList(planets, weightlessPlanets)) {
+				for (Planet planet : collection) {
+					if (i < count && !planet.isDeleted()) {
+						positionSpeed[i * 4] = planet.getPosition().x;
+						positionSpeed[i * 4 + 1] = planet.getPosition().y;
+						positionSpeed[i * 4 + 2] = planet.getSpeed().x;
+						positionSpeed[i * 4 + 3] = planet.getSpeed().y;
+						newMass[i] = planet.getMass();
+						newHue[i] = planet.getHue();
+						newName[i] = planet.getName();
+						i++;
+					}
+				}
+			}
+
+			if (previous != null && i == previous.mass.length
+					&& Arrays.equals(newMass, previous.mass)
+					&& Arrays.equals(newHue, previous.hue)
+					&& Arrays.equals(newName, previous.name)) {
+				mass = previous.mass;
+				hue = previous.hue;
+				name = previous.name;
+				sharesProperties = true;
+				memoryUsage = positionSpeed.length * 8L;
+			} else {
+				mass = Arrays.copyOf(newMass, i);
+				hue = Arrays.copyOf(newHue, i);
+				name = Arrays.copyOf(newName, i);
+				memoryUsage = positionSpeed.length * 8L + propertiesMemoryUsage();
+			}
+		}
+
+		long propertiesMemoryUsage() {
+			return mass.length * (8L + 8L + 8L);
+		}
+
+		long getLastStep() {
+			return step + deltaTimeCount;
+		}
+
+		void addDeltaTime(double deltaTime) {
+			if (deltaTimeCount == deltaTimes.length) {
+				deltaTimes = Arrays.copyOf(deltaTimes, Math.max(16, deltaTimes.length * 2));
+			}
+			deltaTimes[deltaTimeCount++] = deltaTime;
+			memoryUsage += 8;
+		}
+
+		long truncateDeltaTimes(int count) {
+			long removed = (deltaTimeCount - count) * 8L;
+			deltaTimeCount = count;
+			memoryUsage -= removed;
+			return removed;
+		}
+
+		List<Planet> createPlanets() {
+			List<Planet> planets = new ArrayList<>(mass.length);
+			for (int i = 0; i < mass.length; i++) {
+				planets.add(new Planet(
+						name[i],
+						Vector2.of(positionSpeed[i * 4], positionSpeed[i * 4 + 1]),
+						Vector2.of(positionSpeed[i * 4 + 2], positionSpeed[i * 4 + 3]),
+						mass[i],
+						hue[i]));
+			}
+			return planets;
+		}
+	}
+}
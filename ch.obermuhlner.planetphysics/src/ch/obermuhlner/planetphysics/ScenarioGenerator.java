@@ -0,0 +1,189 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import ch.obermuhlner.planetphysics.math.Vector2;
+
+/**
+ * Seeded generator for large initial conditions.
+ *
+ * The planets are generated in parallel chunks, every chunk with its own {@link SplittableRandom}
+ * split from the seed in a fixed order, and streamed batch by batch into {@link Simulation#addAll(java.util.Collection)}.
+ * The <code>create</code> methods collect the same planets into a list instead.
+ * The same seed and the same sequence of calls always produce the same scenario.
+ */
+public class ScenarioGenerator {
+
+	private static final int CHUNK_SIZE = 16 * 1024;
+
+	private final SplittableRandom random;
+
+	public ScenarioGenerator(long seed) {
+		this.random = new SplittableRandom(seed);
+	}
+
+	/**
+	 * Returns the next random value of the generator itself, for example to place a central body.
+	 *
+	 * @param min the minimum value (inclusive)
+	 * @param max the maximum value (exclusive)
+	 * @return the random value
+	 */
+	public double random(double min, double max) {
+		return random(random, min, max);
+	}
+
+	private static double random(SplittableRandom random, double min, double max) {
+		return random.nextDouble() * (max - min) + min;
+	}
+
+	/**
+	 * Adds asteroids on circular orbits around a central planet.
+	 *
+	 * @param simulation the simulation to add the asteroids to
+	 * @param central the central planet
+	 * @param count the number of asteroids
+	 * @param mass the mass of every asteroid
+	 * @param minOrbitRadius the minimum orbit radius
+	 * @param maxOrbitRadius the maximum orbit radius
+	 * @param defaultHue the hue of all asteroids or <code>null</code> to color them by orbit radius
+	 */
+	public void addAsteroids(Simulation simulation, Planet central, int count, double mass, double minOrbitRadius, double maxOrbitRadius, Double defaultHue) {
+		generateAsteroids(simulation::addAll, simulation.getGravity(), central, count, mass, minOrbitRadius, maxOrbitRadius, defaultHue);
+	}
+
+	/**
+	 * Creates asteroids on circular orbits around a central planet.
+	 *
+	 * @param gravity the gravitational constant of the simulation
+	 * @param central the central planet
+	 * @param count the number of asteroids
+	 * @param mass the mass of every asteroid
+	 * @param minOrbitRadius the minimum orbit radius
+	 * @param maxOrbitRadius the maximum orbit radius
+	 * @param defaultHue the hue of all asteroids or <code>null</code> to color them by orbit radius
+	 * @return the created asteroids
+	 */
+	public List<Planet> createAsteroids(double gravity, Planet central, int count, double mass, double minOrbitRadius, double maxOrbitRadius, Double defaultHue) {
+		List<Planet> asteroids = new ArrayList<>(count);
+		generateAsteroids(asteroids::addAll, gravity, central, count, mass, minOrbitRadius, maxOrbitRadius, defaultHue);
+		return asteroids;
+	}
+
+	/**
+	 * Creates a planet on a circular orbit around a central planet at a random angle.
+	 *
+	 * @param gravity the gravitational constant of the simulation
+	 * @param central the central planet
+	 * @param orbitRadius the orbit radius
+	 * @param mass the mass of the planet
+	 * @param hue the hue of the planet
+	 * @return the created planet
+	 */
+	public Planet createOrbitingPlanet(double gravity, Planet central, double orbitRadius, double mass, double hue) {
+		return createOrbitingPlanet(gravity, central, orbitRadius, random(0, 2 * Math.PI), mass, hue);
+	}
+
+	/**
+	 * Creates a planet on a circular orbit around a central planet.
+	 *
+	 * @param gravity the gravitational constant of the simulation
+	 * @param central the central planet
+	 * @param orbitRadius the orbit radius
+	 * @param angle the angle of the position relative to the central planet in radians
+	 * @param mass the mass of the planet
+	 * @param hue the hue of the planet
+	 * @return the created planet
+	 */
+	public static Planet createOrbitingPlanet(double gravity, Planet central, double orbitRadius, double angle, double mass, double hue) {
+		Vector2 position = central.getPosition().add(Vector2.ofPolar(angle, orbitRadius));
+		double orbitSpeed = Math.sqrt(gravity * (mass + central.getMass()) / orbitRadius);
+		Vector2 speed = central.getSpeed().add(Vector2.ofPolar(angle + Math.PI * 0.5, orbitSpeed));
+		return new Planet(position, speed, mass, hue);
+	}
+
+	private void generateAsteroids(Consumer<Collection<Planet>> sink, double gravity, Planet central, int count, double mass, double minOrbitRadius, double maxOrbitRadius, Double defaultHue) {
+		Vector2 centralPosition = central.getPosition();
+		Vector2 centralSpeed = central.getSpeed();
+		double orbitGravity = gravity * (mass + central.getMass());
+
+		generate(sink, count, (chunkRandom, i) -> {
+			double orbitRadius = minOrbitRadius + (i + chunkRandom.nextDouble()) * (maxOrbitRadius - minOrbitRadius) / count;
+			double angle = chunkRandom.nextDouble() * 2 * Math.PI;
+			double hue = defaultHue != null ? defaultHue : i * 300.0 / count;
+			Vector2 position = centralPosition.add(Vector2.ofPolar(angle, orbitRadius));
+			Vector2 speed = centralSpeed.add(Vector2.ofPolar(angle + Math.PI * 0.5, Math.sqrt(orbitGravity / orbitRadius)));
+			return new Planet(position, speed, mass, hue);
+		});
+	}
+
+	/**
+	 * Adds planets with random position, speed, mass and hue.
+	 *
+	 * @param simulation the simulation to add the planets to
+	 * @param count the number of planets
+	 * @param maxRadius the maximum distance from the origin along each axis
+	 * @param maxSpeed the maximum speed along each axis
+	 */
+	public void addRandomPlanets(Simulation simulation, int count, double maxRadius, double maxSpeed) {
+		generateRandomPlanets(simulation::addAll, count, maxRadius, maxSpeed);
+	}
+
+	/**
+	 * Creates planets with random position, speed, mass and hue.
+	 *
+	 * @param count the number of planets
+	 * @param maxRadius the maximum distance from the origin along each axis
+	 * @param maxSpeed the maximum speed along each axis
+	 * @return the created planets
+	 */
+	public List<Planet> createRandomPlanets(int count, double maxRadius, double maxSpeed) {
+		List<Planet> planets = new ArrayList<>(count);
+		generateRandomPlanets(planets::addAll, count, maxRadius, maxSpeed);
+		return planets;
+	}
+
+	private void generateRandomPlanets(Consumer<Collection<Planet>> sink, int count, double maxRadius, double maxSpeed) {
+		generate(sink, count, (chunkRandom, i) -> new Planet(
+				Vector2.of(random(chunkRandom, -maxRadius, maxRadius), random(chunkRandom, -maxRadius, maxRadius)),
+				Vector2.of(random(chunkRandom, -maxSpeed, maxSpeed), random(chunkRandom, -maxSpeed, maxSpeed)),
+				random(chunkRandom, 0.1, 2),
+				random(chunkRandom, 0, 360)));
+	}
+
+	private void generate(Consumer<Collection<Planet>> sink, int count, PlanetFactory factory) {
+		int chunkCount = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		SplittableRandom[] chunkRandoms = new SplittableRandom[chunkCount];
+		for (int chunk = 0; chunk < chunkCount; chunk++) {
+			chunkRandoms[chunk] = random.split();
+		}
+
+		int batchChunks = Runtime.getRuntime().availableProcessors() * 4;
+		for (int batchStart = 0; batchStart < chunkCount; batchStart += batchChunks) {
+			int firstChunk = batchStart;
+			int lastChunk = Math.min(chunkCount, batchStart + batchChunks);
+			int firstIndex = firstChunk * CHUNK_SIZE;
+			Planet[] batch = new Planet[Math.min(count, lastChunk * CHUNK_SIZE) - firstIndex];
+
+			IntStream.range(firstChunk, lastChunk).parallel().forEach(chunk -> {
+				SplittableRandom chunkRandom = chunkRandoms[chunk];
+				int end = Math.min(count, (chunk + 1) * CHUNK_SIZE);
+				for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+					batch[i - firstIndex] = factory.create(chunkRandom, i);
+				}
+			});
+
+			sink.accept(Arrays.asList(batch));
+		}
+	}
+
+	private interface PlanetFactory {
+		Planet create(SplittableRandom random, int index);
+	}
+}
@@ -6,12 +6,71 @@ public interface Simulation {
 
 	public void clear();
 
+	public void setCollisions(boolean collisions);
+
+	public void setGravity(double gravity);
+
+	public double getGravity();
+
 	public void add(Planet planet);
 	
+	public default void addAll(Collection<Planet> planets) {
+		for (Planet planet : planets) {
+			add(planet);
+		}
+	}
+	
 	public Collection<Planet> getPlanets();
 	
 	public Collection<Planet> getWeightlessPlanets();
 	
 	public void simulateStep(double deltaTime, int tailLength);
 
+	/**
+	 * Returns the stream of the merges of colliding planets.
+	 * 
+	 * @return the collision event stream
+	 */
+	public CollisionEventStream getCollisionEvents();
+
+	/**
+	 * Returns the conserved quantities of the massive planets.
+	 * 
+	 * Implementations that calculate them as part of their force pass
+	 * return the quantities of the state at the beginning of the last simulated step.
+	 * The default implementation sums over all pairs of massive planets,
+	 * which is too slow to call after every step of large simulations.
+	 * 
+	 * @return the conserved quantities
+	 */
+	public default ConservedQuantities getConservedQuantities() {
+		return ConservedQuantities.calculate(this);
+	}
+
+	public default void simulateSteps(int count, double deltaTime, int tailLength) {
+		simulateSteps(count, deltaTime, tailLength, 0, null);
+	}
+	
+	/**
+	 * Simulates multiple steps in one call.
+	 * 
+	 * Implementations may keep their internal state across the steps
+	 * and only guarantee that {@link #getPlanets()} and {@link #getWeightlessPlanets()} are up to date
+	 * inside the callback and after the last step.
+	 * 
+	 * @param count the number of steps to simulate
+	 * @param deltaTime the time of a single step
+	 * @param tailLength the length of the tails to record
+	 * @param callbackInterval the number of steps between two callbacks, 0 for no callbacks
+	 * @param callback the callback or <code>null</code>
+	 */
+	public default void simulateSteps(int count, double deltaTime, int tailLength, int callbackInterval, StepCallback callback) {
+		for (int step = 1; step <= count; step++) {
+			simulateStep(deltaTime, tailLength);
+			if (callback != null && callbackInterval > 0 && step % callbackInterval == 0) {
+				callback.afterStep(this, step);
+			}
+		}
+	}
+
 }
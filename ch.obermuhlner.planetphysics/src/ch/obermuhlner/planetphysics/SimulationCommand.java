@@ -0,0 +1,10 @@
+package ch.obermuhlner.planetphysics;
+
+/**
+ * Modification of a {@link Simulation} that is applied between two steps.
+ */
+@FunctionalInterface
+public interface SimulationCommand {
+
+	void apply(Simulation simulation);
+}
@@ -0,0 +1,122 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free multiple producer, single consumer queue of {@link SimulationCommand}s.
+ *
+ * Any thread can submit commands without blocking.
+ * The thread that runs the simulation calls {@link #drainTo(Simulation)} between two steps,
+ * consecutive added planets are applied with a single {@link Simulation#addAll(Collection)}.
+ */
+public class SimulationCommandQueue {
+
+	private final AtomicReference<Node> tail;
+	private Node head;
+
+	public SimulationCommandQueue() {
+		Node stub = new Node(null);
+		head = stub;
+		tail = new AtomicReference<>(stub);
+	}
+
+	/**
+	 * Submits a command. Can be called from any thread.
+	 *
+	 * @param command the command to submit
+	 */
+	public void submit(SimulationCommand command) {
+		Node node = new Node(command);
+		Node previous = tail.getAndSet(node);
+		previous.next = node;
+	}
+
+	public void add(Planet planet) {
+		submit(new AddPlanets(Collections.singletonList(planet)));
+	}
+
+	public void addAll(Collection<Planet> planets) {
+		submit(new AddPlanets(new ArrayList<>(planets)));
+	}
+
+	public void clear() {
+		submit((ClearCommand) Simulation::clear);
+	}
+
+	public boolean isEmpty() {
+		return head.next == null;
+	}
+
+	/**
+	 * Applies all submitted commands to the simulation.
+	 *
+	 * Must only be called by a single thread and never while a step of the simulation is running.
+	 * A command whose submission is still in progress is applied by the next call.
+	 *
+	 * @param simulation the simulation to apply the commands to
+	 * @return the number of applied commands
+	 */
+	public int drainTo(Simulation simulation) {
+		List<Planet> addedPlanets = new ArrayList<>();
+		int count = 0;
+
+		Node next = head.next;
+		while (next != null) {
+			SimulationCommand command = next.command;
+			next.command = null;
+			head = next;
+			next = head.next;
+			count++;
+
+			if (command instanceof AddPlanets) {
+				addedPlanets.addAll(((AddPlanets) command).planets);
+			} else {
+				if (command instanceof ClearCommand) {
+					addedPlanets.clear();
+				} else {
+					addAll(simulation, addedPlanets);
+				}
+				command.apply(simulation);
+			}
+		}
+		addAll(simulation, addedPlanets);
+
+		return count;
+	}
+
+	private static void addAll(Simulation simulation, List<Planet> planets) {
+		if (!planets.isEmpty()) {
+			simulation.addAll(planets);
+			planets.clear();
+		}
+	}
+
+	private static class Node {
+		SimulationCommand command;
+		volatile Node next;
+
+		Node(SimulationCommand command) {
+			this.command = command;
+		}
+	}
+
+	private static class AddPlanets implements SimulationCommand {
+		final Collection<Planet> planets;
+
+		AddPlanets(Collection<Planet> planets) {
+			this.planets = planets;
+		}
+
+		@Override
+		public void apply(Simulation simulation) {
+			simulation.addAll(planets);
+		}
+	}
+
+	private interface ClearCommand extends SimulationCommand {
+	}
+}
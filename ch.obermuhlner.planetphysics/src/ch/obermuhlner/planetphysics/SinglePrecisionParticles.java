@@ -0,0 +1,253 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.List;
+
+import ch.obermuhlner.planetphysics.math.MortonOrder;
+import ch.obermuhlner.planetphysics.math.Vector2;
+
+/**
+ * Single precision state of the weightless planets of a {@link BruteForceSimulation}.
+ *
+ * The positions are stored as <code>float</code> relative to a double precision reference origin
+ * at the center of the particles, so that precision is not lost far away from (0, 0).
+ * The {@link Planet} instances are only updated from the <code>float</code> state when they are accessed.
+ */
+class SinglePrecisionParticles {
+
+	private final List<Planet> planets;
+
+	private boolean loaded;
+	private boolean synced = true;
+	private int syncTailLength;
+
+	private int count;
+	private double referenceX;
+	private double referenceY;
+	private float[] x = new float[0];
+	private float[] y = new float[0];
+	private float[] speedX = new float[0];
+	private float[] speedY = new float[0];
+	private float[] radius = new float[0];
+	private int[] collisionPartner = new int[0];
+	private float[] scratch = new float[0];
+
+	private float[] sourceX = new float[0];
+	private float[] sourceY = new float[0];
+	private float[] sourceGravity = new float[0];
+	private float[] sourceRadius = new float[0];
+	private Planet[] sources = new Planet[0];
+	private int sourceCount;
+
+	public SinglePrecisionParticles(List<Planet> planets) {
+		this.planets = planets;
+	}
+
+	/**
+	 * Writes the single precision state back and reloads it from the planets before the next step.
+	 *
+	 * Must be called before the list of planets is modified.
+	 */
+	public void invalidate() {
+		sync();
+		loaded = false;
+	}
+
+	/**
+	 * Updates the {@link Planet} instances from the single precision state.
+	 */
+	public void sync() {
+		if (synced) {
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			syncPlanet(i, syncTailLength);
+		}
+		synced = true;
+	}
+
+	private void syncPlanet(int index, int tailLength) {
+		Planet planet = planets.get(index);
+		planet.setPosition(Vector2.of(referenceX + x[index], referenceY + y[index]), tailLength);
+		planet.setSpeed(Vector2.of(speedX[index], speedY[index]));
+	}
+
+	/**
+	 * Sorts the particles together with the list of planets in Morton order of their position.
+	 *
+	 * The {@link Planet} instances are not changed, only the order in which they are stored.
+	 */
+	public void reorder() {
+		if (!loaded) {
+			load();
+		}
+
+		float[] currentX = x;
+		float[] currentY = y;
+		int[] indices = MortonOrder.sortedIndices(i -> currentX[i], i -> currentY[i], count);
+
+		x = permute(x, indices);
+		y = permute(y, indices);
+		speedX = permute(speedX, indices);
+		speedY = permute(speedY, indices);
+		radius = permute(radius, indices);
+
+		Planet[] sorted = new Planet[count];
+		for (int i = 0; i < count; i++) {
+			sorted[i] = planets.get(indices[i]);
+		}
+		for (int i = 0; i < count; i++) {
+			planets.set(i, sorted[i]);
+		}
+	}
+
+	private float[] permute(float[] values, int[] indices) {
+		if (scratch.length != values.length) {
+			scratch = new float[values.length];
+		}
+		for (int i = 0; i < count; i++) {
+			scratch[i] = values[indices[i]];
+		}
+		float[] permuted = scratch;
+		scratch = values;
+		return permuted;
+	}
+
+	public void simulateStep(List<Planet> massivePlanets, double gravity, boolean collisions, CollisionEventStream collisionEvents, double deltaTime, int tailLength) {
+		if (!loaded) {
+			load();
+		}
+		loadSources(massivePlanets, gravity);
+
+		float dt = (float) deltaTime;
+		boolean anyCollision = false;
+		for (int i = 0; i < count; i++) {
+			float px = x[i];
+			float py = y[i];
+			float r = radius[i];
+			float accelerationX = 0;
+			float accelerationY = 0;
+			int partner = -1;
+			for (int j = 0; j < sourceCount; j++) {
+				float deltaX = sourceX[j] - px;
+				float deltaY = sourceY[j] - py;
+				float distanceSquared = deltaX * deltaX + deltaY * deltaY;
+				float distance = (float) Math.sqrt(distanceSquared);
+				if (collisions && distance < r + sourceRadius[j]) {
+					if (partner < 0) {
+						partner = j;
+					}
+				} else {
+					float magnitude = sourceGravity[j] / (distanceSquared * distance);
+					accelerationX += deltaX * magnitude;
+					accelerationY += deltaY * magnitude;
+				}
+			}
+			speedX[i] += accelerationX * dt;
+			speedY[i] += accelerationY * dt;
+			collisionPartner[i] = partner;
+			anyCollision |= partner >= 0;
+		}
+
+		if (anyCollision) {
+			mergeCollisions(collisionEvents);
+		}
+
+		for (int i = 0; i < count; i++) {
+			x[i] += speedX[i] * dt;
+			y[i] += speedY[i] * dt;
+		}
+
+		synced = false;
+		syncTailLength = tailLength;
+	}
+
+	private void mergeCollisions(CollisionEventStream collisionEvents) {
+		int target = 0;
+		for (int i = 0; i < count; i++) {
+			Planet planet = planets.get(i);
+			Planet other = collisionPartner[i] >= 0 ? sources[collisionPartner[i]] : null;
+			if (other != null && !other.isDeleted()) {
+				if (planet.getMass() == 0.0) {
+					collisionEvents.merge(other, planet);
+				} else {
+					// the tail point of this step is recorded by the next sync
+					List<Vector2> oldPositions = planet.oldPositions;
+					syncPlanet(i, 0);
+					planet.oldPositions = oldPositions;
+					collisionEvents.merge(planet, other);
+					speedX[i] = (float) planet.getSpeed().x;
+					speedY[i] = (float) planet.getSpeed().y;
+					radius[i] = (float) planet.getRadius();
+				}
+			}
+			if (!planet.isDeleted()) {
+				planets.set(target, planet);
+				x[target] = x[i];
+				y[target] = y[i];
+				speedX[target] = speedX[i];
+				speedY[target] = speedY[i];
+				radius[target] = radius[i];
+				target++;
+			}
+		}
+		planets.subList(target, count).clear();
+		count = target;
+	}
+
+	private void load() {
+		count = planets.size();
+		if (x.length < count) {
+			x = new float[count];
+			y = new float[count];
+			speedX = new float[count];
+			speedY = new float[count];
+			radius = new float[count];
+			collisionPartner = new int[count];
+		}
+
+		referenceX = 0;
+		referenceY = 0;
+		for (Planet planet : planets) {
+			referenceX += planet.getPosition().x;
+			referenceY += planet.getPosition().y;
+		}
+		if (count > 0) {
+			referenceX /= count;
+			referenceY /= count;
+		}
+
+		for (int i = 0; i < count; i++) {
+			Planet planet = planets.get(i);
+			x[i] = (float) (planet.getPosition().x - referenceX);
+			y[i] = (float) (planet.getPosition().y - referenceY);
+			speedX[i] = (float) planet.getSpeed().x;
+			speedY[i] = (float) planet.getSpeed().y;
+			radius[i] = (float) planet.getRadius();
+		}
+		loaded = true;
+	}
+
+	private void loadSources(List<Planet> massivePlanets, double gravity) {
+		int capacity = massivePlanets.size();
+		if (sources.length < capacity) {
+			sources = new Planet[capacity];
+			sourceX = new float[capacity];
+			sourceY = new float[capacity];
+			sourceGravity = new float[capacity];
+			sourceRadius = new float[capacity];
+		}
+
+		int j = 0;
+		for (Planet planet : massivePlanets) {
+			if (!planet.isDeleted()) {
+				sources[j] = planet;
+				sourceX[j] = (float) (planet.getPosition().x - referenceX);
+				sourceY[j] = (float) (planet.getPosition().y - referenceY);
+				sourceGravity[j] = (float) (gravity * planet.getMass());
+				sourceRadius[j] = (float) planet.getRadius();
+				j++;
+			}
+		}
+		sourceCount = j;
+	}
+}
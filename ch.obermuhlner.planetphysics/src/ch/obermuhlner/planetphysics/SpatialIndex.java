@@ -0,0 +1,275 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Spatial index of the planets of a {@link Simulation} for picking and neighborhood queries.
+ *
+ * The index is a balanced k-d tree stored implicitly in arrays (the median of every range is its node).
+ * It is rebuilt lazily on the first query after {@link #invalidate()} was called,
+ * typically after every simulated step.
+ */
+public class SpatialIndex {
+
+	private static final int PARALLEL_THRESHOLD = 64 * 1024;
+
+	private final Simulation simulation;
+
+	private boolean valid;
+	private int count;
+	private double[] x = new double[0];
+	private double[] y = new double[0];
+	private Planet[] items = new Planet[0];
+
+	public SpatialIndex(Simulation simulation) {
+		this.simulation = simulation;
+	}
+
+	/**
+	 * Marks the index as outdated, it will be rebuilt on the next query.
+	 */
+	public void invalidate() {
+		valid = false;
+	}
+
+	/**
+	 * Returns the planets nearest to a point, sorted by increasing distance.
+	 *
+	 * @param pointX the x coordinate of the point
+	 * @param pointY the y coordinate of the point
+	 * @param k the maximum number of planets to return
+	 * @return the nearest planets
+	 */
+	public List<Planet> findNearest(double pointX, double pointY, int k) {
+		ensureValid();
+		if (k <= 0 || count == 0) {
+			return new ArrayList<>();
+		}
+
+		Neighbors neighbors = new Neighbors(Math.min(k, count));
+		findNearest(0, count, 0, pointX, pointY, neighbors);
+
+		List<Planet> result = new ArrayList<>(neighbors.size);
+		for (int i = 0; i < neighbors.size; i++) {
+			result.add(items[neighbors.indices[i]]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns all planets with the center within a radius around a point.
+	 *
+	 * @param pointX the x coordinate of the point
+	 * @param pointY the y coordinate of the point
+	 * @param radius the radius
+	 * @return the planets within the radius in no particular order
+	 */
+	public List<Planet> findWithinRadius(double pointX, double pointY, double radius) {
+		ensureValid();
+		List<Planet> result = new ArrayList<>();
+		findWithinRadius(0, count, 0, pointX, pointY, radius * radius, result);
+		return result;
+	}
+
+	private void ensureValid() {
+		if (!valid) {
+			build(simulation.getPlanets(), simulation.getWeightlessPlanets());
+			valid = true;
+		}
+	}
+
+	private void build(Collection<Planet> planets, Collection<Planet> weightlessPlanets) {
+		count = planets.size() + weightlessPlanets.size();
+		if (items.length < count || items.length > count * 4) {
+			x = new double[count];
+			y = new double[count];
+			items = new Planet[count];
+		} else {
+			Arrays.fill(items, count, items.length, null);
+		}
+
+		int i = 0;
+		for (Planet planet : planets) {
+			i = store(i, planet);
+		}
+		for (Planet planet : weightlessPlanets) {
+			i = store(i, planet);
+		}
+		count = i;
+
+		if (count > PARALLEL_THRESHOLD) {
+			ForkJoinPool.commonPool().invoke(new BuildAction(0, count, 0));
+		} else {
+			buildRange(0, count, 0);
+		}
+	}
+
+	private int store(int index, Planet planet) {
+		if (index < count && !planet.isDeleted()) {
+			x[index] = planet.getPosition().x;
+			y[index] = planet.getPosition().y;
+			items[index] = planet;
+			return index + 1;
+		}
+		return index;
+	}
+
+	private void buildRange(int start, int end, int depth) {
+		while (end - start > 1) {
+			int median = (start + end) >>> 1;
+			select(start, end - 1, median, depth & 1);
+			buildRange(start, median, depth + 1);
+			start = median + 1;
+			depth++;
+		}
+	}
+
+	private class BuildAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int start;
+		private final int end;
+		private final int depth;
+
+		BuildAction(int start, int end, int depth) {
+			this.start = start;
+			this.end = end;
+			this.depth = depth;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= PARALLEL_THRESHOLD) {
+				buildRange(start, end, depth);
+				return;
+			}
+			int median = (start + end) >>> 1;
+			select(start, end - 1, median, depth & 1);
+			invokeAll(new BuildAction(start, median, depth + 1), new BuildAction(median + 1, end, depth + 1));
+		}
+	}
+
+	private void select(int left, int right, int k, int axis) {
+		double[] keys = axis == 0 ? x : y;
+		while (right > left) {
+			int middle = (left + right) >>> 1;
+			double pivot = median(keys[left], keys[middle], keys[right]);
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (keys[i] < pivot) {
+					i++;
+				}
+				while (keys[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(i++, j--);
+				}
+			}
+			if (k <= j) {
+				right = j;
+			} else if (k >= i) {
+				left = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private static double median(double a, double b, double c) {
+		return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+	}
+
+	private void swap(int i, int j) {
+		double tempX = x[i];
+		x[i] = x[j];
+		x[j] = tempX;
+		double tempY = y[i];
+		y[i] = y[j];
+		y[j] = tempY;
+		Planet tempItem = items[i];
+		items[i] = items[j];
+		items[j] = tempItem;
+	}
+
+	private void findNearest(int start, int end, int depth, double pointX, double pointY, Neighbors neighbors) {
+		if (start >= end) {
+			return;
+		}
+		int median = (start + end) >>> 1;
+		double deltaX = x[median] - pointX;
+		double deltaY = y[median] - pointY;
+		neighbors.offer(median, deltaX * deltaX + deltaY * deltaY);
+
+		double delta = (depth & 1) == 0 ? -deltaX : -deltaY;
+		if (delta < 0) {
+			findNearest(start, median, depth + 1, pointX, pointY, neighbors);
+			if (delta * delta < neighbors.maxDistanceSquared()) {
+				findNearest(median + 1, end, depth + 1, pointX, pointY, neighbors);
+			}
+		} else {
+			findNearest(median + 1, end, depth + 1, pointX, pointY, neighbors);
+			if (delta * delta < neighbors.maxDistanceSquared()) {
+				findNearest(start, median, depth + 1, pointX, pointY, neighbors);
+			}
+		}
+	}
+
+	private void findWithinRadius(int start, int end, int depth, double pointX, double pointY, double radiusSquared, List<Planet> result) {
+		if (start >= end) {
+			return;
+		}
+		int median = (start + end) >>> 1;
+		double deltaX = x[median] - pointX;
+		double deltaY = y[median] - pointY;
+		if (deltaX * deltaX + deltaY * deltaY <= radiusSquared) {
+			result.add(items[median]);
+		}
+
+		double delta = (depth & 1) == 0 ? -deltaX : -deltaY;
+		if (delta < 0 || delta * delta <= radiusSquared) {
+			findWithinRadius(start, median, depth + 1, pointX, pointY, radiusSquared, result);
+		}
+		if (delta >= 0 || delta * delta <= radiusSquared) {
+			findWithinRadius(median + 1, end, depth + 1, pointX, pointY, radiusSquared, result);
+		}
+	}
+
+	/**
+	 * Bounded list of the nearest candidates sorted by distance.
+	 */
+	private static class Neighbors {
+		final int[] indices;
+		final double[] distancesSquared;
+		int size;
+
+		Neighbors(int capacity) {
+			indices = new int[capacity];
+			distancesSquared = new double[capacity];
+		}
+
+		double maxDistanceSquared() {
+			return size < indices.length ? Double.POSITIVE_INFINITY : distancesSquared[size - 1];
+		}
+
+		void offer(int index, double distanceSquared) {
+			if (distanceSquared >= maxDistanceSquared()) {
+				return;
+			}
+			int i = size < indices.length ? size++ : size - 1;
+			while (i > 0 && distancesSquared[i - 1] > distanceSquared) {
+				indices[i] = indices[i - 1];
+				distancesSquared[i] = distancesSquared[i - 1];
+				i--;
+			}
+			indices[i] = index;
+			distancesSquared[i] = distanceSquared;
+		}
+	}
+}
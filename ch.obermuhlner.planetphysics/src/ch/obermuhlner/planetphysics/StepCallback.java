@@ -0,0 +1,14 @@
+package ch.obermuhlner.planetphysics;
+
+@FunctionalInterface
+public interface StepCallback {
+
+	/**
+	 * Called by {@link Simulation#simulateSteps(int, double, int, int, StepCallback)} after a step
+	 * when the state of the simulation is published.
+	 * 
+	 * @param simulation the simulation
+	 * @param step the number of steps simulated so far in this call, starting with 1
+	 */
+	public void afterStep(Simulation simulation, int step);
+}
@@ -0,0 +1,450 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.obermuhlner.planetphysics.math.Vector2;
+
+/**
+ * Simulation that treats gravitationally bound subsystems (for example a planet with its moons) as composite bodies.
+ *
+ * Every few steps the massive planets are grouped: a planet joins the subsystem of its primary
+ * (the heavier planet that pulls it strongest) if the two-body energy relative to the primary is negative
+ * and it is inside the Hill sphere of the subsystem host relative to the primary of the host.
+ * Planets without a primary (like the central star) are never hosts.
+ *
+ * Bodies and subsystems interact with the mass and center of mass of other subsystems,
+ * unless they are closer than the opening factor times the sum of their extents, then the members interact individually.
+ * The external acceleration of a subsystem is applied to all its members,
+ * the internal dynamics of a subsystem are integrated with a finer time step derived from its shortest orbital period.
+ * Tidal forces of external bodies inside a subsystem are neglected.
+ * Weightless planets are never members of a subsystem.
+ */
+public class SubsystemSimulation extends AbstractSimulation {
+
+	private int detectionInterval = 20;
+	private double openingFactor = 3.0;
+	private int stepsPerOrbit = 100;
+	private int maxSubsteps = 32;
+
+	private final List<List<Planet>> subsystems = new ArrayList<>();
+	private double[] orbitalPeriods = new double[0];
+	private int stepsSinceDetection;
+	private int detectedPlanetCount = -1;
+
+	private long interactionCount;
+
+	/**
+	 * Sets the number of steps after which the subsystems are detected again.
+	 *
+	 * @param detectionInterval the number of steps, 1 to detect in every step
+	 */
+	public void setDetectionInterval(int detectionInterval) {
+		this.detectionInterval = Math.max(1, detectionInterval);
+	}
+
+	/**
+	 * Sets the factor of the summed extents of two bodies below which their members interact individually.
+	 *
+	 * @param openingFactor the opening factor
+	 */
+	public void setOpeningFactor(double openingFactor) {
+		this.openingFactor = openingFactor;
+	}
+
+	/**
+	 * Sets the number of internal steps per shortest orbital period inside a subsystem.
+	 *
+	 * @param stepsPerOrbit the number of internal steps per orbit
+	 * @param maxSubsteps the maximum number of internal steps per simulated step
+	 */
+	public void setStepsPerOrbit(int stepsPerOrbit, int maxSubsteps) {
+		this.stepsPerOrbit = stepsPerOrbit;
+		this.maxSubsteps = Math.max(1, maxSubsteps);
+	}
+
+	/**
+	 * Returns the detected subsystems, the host is the first planet of every subsystem.
+	 *
+	 * @return the subsystems
+	 */
+	public List<List<Planet>> getSubsystems() {
+		return Collections.unmodifiableList(subsystems);
+	}
+
+	/**
+	 * Returns the number of pairwise gravity evaluations of the last step.
+	 *
+	 * In steps that detect the subsystems the pairs compared to find the primaries are included.
+	 *
+	 * @return the number of interactions
+	 */
+	public long getInteractionCount() {
+		return interactionCount;
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		subsystems.clear();
+		detectedPlanetCount = -1;
+	}
+
+	@Override
+	public void simulateStep(double deltaTime, int tailLength) {
+		collisionEvents.nextStep();
+		interactionCount = 0;
+
+		if (stepsSinceDetection >= detectionInterval || detectedPlanetCount != planets.size()) {
+			detectSubsystems();
+			stepsSinceDetection = 0;
+			detectedPlanetCount = planets.size();
+		}
+		stepsSinceDetection++;
+
+		Node[] nodes = createNodes();
+
+		beginConservedQuantities();
+		for (Planet planet : planets) {
+			Vector2 position = planet.getPosition();
+			Vector2 speed = planet.getSpeed();
+			addConservedQuantities(planet.getMass(), position.x, position.y, speed.x, speed.y);
+		}
+
+		for (Node node : nodes) {
+			for (Node other : nodes) {
+				if (other != node) {
+					accelerate(node, other);
+				}
+			}
+		}
+		for (Planet planet : weightlessPlanets) {
+			accelerate(planet, nodes, deltaTime);
+		}
+
+		for (Node node : nodes) {
+			if (node.count == 1) {
+				Planet planet = node.members[0];
+				if (!planet.isDeleted()) {
+					planet.setSpeed(planet.getSpeed().addScaled(node.accelerationX, node.accelerationY, deltaTime));
+					planet.setPosition(planet.getPosition().addScaled(planet.getSpeed(), deltaTime), tailLength);
+				}
+			} else {
+				integrateSubsystem(node, deltaTime, tailLength);
+			}
+		}
+		removeDeleted(weightlessPlanets);
+		for (Planet planet : weightlessPlanets) {
+			planet.setPosition(planet.getPosition().addScaled(planet.getSpeed(), deltaTime), tailLength);
+		}
+		removeDeleted(planets);
+		endConservedQuantities();
+	}
+
+	private void detectSubsystems() {
+		subsystems.clear();
+
+		int count = planets.size();
+		Planet[] sorted = planets.toArray(new Planet[count]);
+		Arrays.sort(sorted, (planet1, planet2) -> Double.compare(planet2.getMass(), planet1.getMass()));
+		if (orbitalPeriods.length < count) {
+			orbitalPeriods = new double[count];
+		}
+
+		Map<Planet, Planet> primaries = new IdentityHashMap<>();
+		Map<Planet, Integer> hostSubsystems = new IdentityHashMap<>();
+		Map<Planet, Planet> hosts = new IdentityHashMap<>();
+		for (int i = 0; i < count; i++) {
+			Planet planet = sorted[i];
+			Vector2 position = planet.getPosition();
+
+			Planet primary = null;
+			double strongestPull = 0;
+			interactionCount += i;
+			for (int j = 0; j < i; j++) {
+				Planet candidate = sorted[j];
+				double distanceSquared = candidate.getPosition().subtract(position).getLengthSquared();
+				double pull = candidate.getMass() / distanceSquared;
+				if (pull > strongestPull) {
+					strongestPull = pull;
+					primary = candidate;
+				}
+			}
+			if (primary == null) {
+				continue;
+			}
+			primaries.put(planet, primary);
+
+			Planet host = hosts.containsKey(primary) ? hosts.get(primary) : primary;
+			Planet hostPrimary = primaries.get(host);
+			if (hostPrimary == null) {
+				// the top level body is never a host, everything would be bound to it
+				continue;
+			}
+
+			double distance = primary.getPosition().subtract(position).getLength();
+			double relativeSpeedSquared = primary.getSpeed().subtract(planet.getSpeed()).getLengthSquared();
+			double twoBodyMass = primary.getMass() + planet.getMass();
+			double energy = 0.5 * relativeSpeedSquared - gravity * twoBodyMass / distance;
+
+			double hostOrbit = hostPrimary.getPosition().subtract(host.getPosition()).getLength();
+			double hillRadius = hostOrbit * Math.cbrt(host.getMass() / (3 * hostPrimary.getMass()));
+			double hostDistance = host.getPosition().subtract(position).getLength();
+
+			if (energy < 0 && hostDistance < hillRadius) {
+				Integer subsystemIndex = hostSubsystems.get(host);
+				if (subsystemIndex == null) {
+					subsystemIndex = subsystems.size();
+					List<Planet> subsystem = new ArrayList<>();
+					subsystem.add(host);
+					hostSubsystems.put(host, subsystemIndex);
+					subsystems.add(subsystem);
+					orbitalPeriods[subsystemIndex] = Double.MAX_VALUE;
+				}
+				subsystems.get(subsystemIndex).add(planet);
+				hosts.put(planet, host);
+
+				double period = 2 * Math.PI * Math.sqrt(distance * distance * distance / (gravity * twoBodyMass));
+				orbitalPeriods[subsystemIndex] = Math.min(orbitalPeriods[subsystemIndex], period);
+			}
+		}
+	}
+
+	private Node[] createNodes() {
+		Map<Planet, Boolean> grouped = new IdentityHashMap<>();
+		List<Node> nodes = new ArrayList<>();
+		for (int s = 0; s < subsystems.size(); s++) {
+			List<Planet> subsystem = subsystems.get(s);
+			List<Planet> members = new ArrayList<>(subsystem.size());
+			for (Planet planet : subsystem) {
+				if (!planet.isDeleted()) {
+					members.add(planet);
+				}
+				grouped.put(planet, Boolean.TRUE);
+			}
+			if (!members.isEmpty()) {
+				Node node = new Node(members.toArray(new Planet[members.size()]));
+				node.period = orbitalPeriods[s];
+				nodes.add(node);
+			}
+		}
+		for (Planet planet : planets) {
+			if (!planet.isDeleted() && !grouped.containsKey(planet)) {
+				nodes.add(new Node(new Planet[] { planet }));
+			}
+		}
+		return nodes.toArray(new Node[nodes.size()]);
+	}
+
+	private void accelerate(Node node, Node other) {
+		double deltaX = other.x - node.x;
+		double deltaY = other.y - node.y;
+		double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+		if (distance > openingFactor * (node.extent + other.extent)) {
+			interactionCount++;
+			double magnitude = gravity * other.mass / (distance * distance * distance);
+			node.accelerationX += deltaX * magnitude;
+			node.accelerationY += deltaY * magnitude;
+			// every pair of nodes is visited twice
+			addPotentialEnergy(-0.5 * node.mass * magnitude * distance * distance);
+			return;
+		}
+
+		// close bodies interact member by member, the mass weighted mean acceleration is applied to the whole node
+		double weightedX = 0;
+		double weightedY = 0;
+		double potential = 0;
+		for (int i = 0; i < node.count; i++) {
+			Planet planet = node.members[i];
+			for (int j = 0; j < other.count; j++) {
+				Planet otherPlanet = other.members[j];
+				if (planet.isDeleted()) {
+					break;
+				}
+				if (otherPlanet.isDeleted()) {
+					continue;
+				}
+				interactionCount++;
+				double memberDeltaX = otherPlanet.getPosition().x - planet.getPosition().x;
+				double memberDeltaY = otherPlanet.getPosition().y - planet.getPosition().y;
+				double memberDistance = Math.sqrt(memberDeltaX * memberDeltaX + memberDeltaY * memberDeltaY);
+				if (collisions && memberDistance < planet.getRadius() + otherPlanet.getRadius()) {
+					merge(planet, otherPlanet);
+				} else {
+					double magnitude = gravity * otherPlanet.getMass() / (memberDistance * memberDistance * memberDistance);
+					weightedX += planet.getMass() * memberDeltaX * magnitude;
+					weightedY += planet.getMass() * memberDeltaY * magnitude;
+					potential -= planet.getMass() * magnitude * memberDistance * memberDistance;
+				}
+			}
+		}
+		addPotentialEnergy(0.5 * potential);
+		if (node.mass > 0) {
+			node.accelerationX += weightedX / node.mass;
+			node.accelerationY += weightedY / node.mass;
+		}
+	}
+
+	private void accelerate(Planet planet, Node[] nodes, double deltaTime) {
+		Vector2 position = planet.getPosition();
+		double accelerationX = 0;
+		double accelerationY = 0;
+		for (Node node : nodes) {
+			double deltaX = node.x - position.x;
+			double deltaY = node.y - position.y;
+			double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+			if (distance > openingFactor * node.extent + planet.getRadius()) {
+				interactionCount++;
+				double magnitude = gravity * node.mass / (distance * distance * distance);
+				accelerationX += deltaX * magnitude;
+				accelerationY += deltaY * magnitude;
+				continue;
+			}
+
+			for (int j = 0; j < node.count; j++) {
+				Planet other = node.members[j];
+				if (other.isDeleted()) {
+					continue;
+				}
+				interactionCount++;
+				double memberDeltaX = other.getPosition().x - position.x;
+				double memberDeltaY = other.getPosition().y - position.y;
+				double memberDistance = Math.sqrt(memberDeltaX * memberDeltaX + memberDeltaY * memberDeltaY);
+				if (collisions && memberDistance < planet.getRadius() + other.getRadius()) {
+					if (planet.getMass() == 0.0) {
+						collisionEvents.merge(other, planet);
+						return;
+					}
+					collisionEvents.merge(planet, other);
+				} else {
+					double magnitude = gravity * other.getMass() / (memberDistance * memberDistance * memberDistance);
+					accelerationX += memberDeltaX * magnitude;
+					accelerationY += memberDeltaY * magnitude;
+				}
+			}
+		}
+		planet.setSpeed(planet.getSpeed().addScaled(accelerationX, accelerationY, deltaTime));
+	}
+
+	private void integrateSubsystem(Node node, double deltaTime, int tailLength) {
+		int count = node.count;
+		Planet[] members = node.members;
+		double[] x = new double[count];
+		double[] y = new double[count];
+		double[] speedX = new double[count];
+		double[] speedY = new double[count];
+		for (int i = 0; i < count; i++) {
+			Planet planet = members[i];
+			x[i] = planet.getPosition().x;
+			y[i] = planet.getPosition().y;
+			// the external acceleration moves the subsystem as a whole
+			speedX[i] = planet.getSpeed().x + node.accelerationX * deltaTime;
+			speedY[i] = planet.getSpeed().y + node.accelerationY * deltaTime;
+		}
+
+		int substeps = 1;
+		if (node.period > 0) {
+			substeps = (int) Math.min(maxSubsteps, Math.max(1, Math.ceil(stepsPerOrbit * Math.abs(deltaTime) / node.period)));
+		}
+		double substepTime = deltaTime / substeps;
+
+		double potential = 0;
+		for (int substep = 0; substep < substeps; substep++) {
+			for (int i = 0; i < count; i++) {
+				Planet planet = members[i];
+				if (planet.isDeleted()) {
+					continue;
+				}
+				for (int j = i + 1; j < count; j++) {
+					Planet other = members[j];
+					if (other.isDeleted()) {
+						continue;
+					}
+					interactionCount++;
+					double deltaX = x[j] - x[i];
+					double deltaY = y[j] - y[i];
+					double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+					if (collisions && distance < planet.getRadius() + other.getRadius()) {
+						planet.setSpeed(Vector2.of(speedX[i], speedY[i]));
+						other.setSpeed(Vector2.of(speedX[j], speedY[j]));
+						merge(planet, other);
+						int survivor = planet.isDeleted() ? j : i;
+						speedX[survivor] = members[survivor].getSpeed().x;
+						speedY[survivor] = members[survivor].getSpeed().y;
+						if (planet.isDeleted()) {
+							break;
+						}
+					} else {
+						if (substep == 0) {
+							potential -= gravity * planet.getMass() * other.getMass() / distance;
+						}
+						double magnitude = gravity * substepTime / (distance * distance * distance);
+						speedX[i] += deltaX * magnitude * other.getMass();
+						speedY[i] += deltaY * magnitude * other.getMass();
+						speedX[j] -= deltaX * magnitude * planet.getMass();
+						speedY[j] -= deltaY * magnitude * planet.getMass();
+					}
+				}
+			}
+			for (int i = 0; i < count; i++) {
+				x[i] += speedX[i] * substepTime;
+				y[i] += speedY[i] * substepTime;
+			}
+		}
+		// the potential inside the subsystem at the beginning of the step
+		addPotentialEnergy(potential);
+
+		for (int i = 0; i < count; i++) {
+			Planet planet = members[i];
+			if (!planet.isDeleted()) {
+				planet.setSpeed(Vector2.of(speedX[i], speedY[i]));
+				planet.setPosition(Vector2.of(x[i], y[i]), tailLength);
+			}
+		}
+	}
+
+	private void merge(Planet planet, Planet other) {
+		if (planet.getMass() < other.getMass()) {
+			collisionEvents.merge(other, planet);
+		} else {
+			collisionEvents.merge(planet, other);
+		}
+	}
+
+	private static class Node {
+		final Planet[] members;
+		final int count;
+		double mass;
+		double x;
+		double y;
+		double extent;
+		double period;
+		double accelerationX;
+		double accelerationY;
+
+		Node(Planet[] members) {
+			this.members = members;
+			this.count = members.length;
+
+			for (Planet planet : members) {
+				mass += planet.getMass();
+				x += planet.getMass() * planet.getPosition().x;
+				y += planet.getMass() * planet.getPosition().y;
+			}
+			if (mass > 0) {
+				x /= mass;
+				y /= mass;
+			} else {
+				x = members[0].getPosition().x;
+				y = members[0].getPosition().y;
+			}
+			for (Planet planet : members) {
+				extent = Math.max(extent, planet.getPosition().subtract(Vector2.of(x, y)).getLength() + planet.getRadius());
+			}
+		}
+	}
+}
@@ -0,0 +1,389 @@
+package ch.obermuhlner.planetphysics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.obermuhlner.planetphysics.math.Vector2;
+
+/**
+ * Symplectic Wisdom-Holman integrator in democratic heliocentric coordinates.
+ *
+ * The heaviest planet is the central body; all other bodies move along analytic Kepler orbits around it
+ * and receive kicks from the interactions between the non-central planets.
+ * This allows much larger time steps than {@link BruteForceSimulation} for systems dominated by one mass.
+ */
+public class WisdomHolmanSimulation extends AbstractSimulation {
+
+	private static final int MAX_KEPLER_ITERATIONS = 50;
+	private static final double KEPLER_TOLERANCE = 1e-12;
+
+	private final List<Planet> bodies = new ArrayList<>();
+	private Planet central;
+	private int bodyCount;
+	private int massiveCount;
+	private double centralMass;
+	private double centralRadius;
+	private double totalMass;
+	private double centerX;
+	private double centerY;
+	private double centerSpeedX;
+	private double centerSpeedY;
+	private double[] mass = new double[0];
+	private double[] radius = new double[0];
+	private double[] x = new double[0];
+	private double[] y = new double[0];
+	private double[] vx = new double[0];
+	private double[] vy = new double[0];
+	private int[] collisionPartner = new int[0];
+
+	@Override
+	public void simulateStep(double deltaTime, int tailLength) {
+		simulateSteps(1, deltaTime, tailLength, 0, null);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The heliocentric state is kept in arrays across the steps and only written back to the planets
+	 * when a callback is due, a collision happened, tails are recorded or after the last step.
+	 */
+	@Override
+	public void simulateSteps(int count, double deltaTime, int tailLength, int callbackInterval, StepCallback callback) {
+		boolean loaded = false;
+		for (int step = 1; step <= count; step++) {
+			collisionEvents.nextStep();
+			if (!loaded) {
+				loaded = load();
+			}
+
+			boolean callbackDue = callback != null && callbackInterval > 0 && step % callbackInterval == 0;
+			if (loaded) {
+				boolean collided = advance(deltaTime);
+				if (collided || tailLength > 0 || callbackDue || step == count) {
+					store(tailLength);
+					if (collided) {
+						mergeCollisions();
+						removeDeleted(planets);
+						removeDeleted(weightlessPlanets);
+					}
+					loaded = false;
+				}
+			} else {
+				// no massive planets
+				beginConservedQuantities();
+				endConservedQuantities();
+				for (Planet planet : weightlessPlanets) {
+					planet.setPosition(planet.getPosition().addScaled(planet.getSpeed(), deltaTime), tailLength);
+				}
+			}
+
+			if (callbackDue) {
+				callback.afterStep(this, step);
+			}
+		}
+	}
+
+	private boolean load() {
+		central = findCentral();
+		if (central == null) {
+			return false;
+		}
+
+		bodies.clear();
+		for (Planet planet : planets) {
+			if (planet != central) {
+				bodies.add(planet);
+			}
+		}
+		massiveCount = bodies.size();
+		bodies.addAll(weightlessPlanets);
+		bodyCount = bodies.size();
+		ensureCapacity(bodyCount);
+
+		centralMass = central.getMass();
+		centralRadius = central.getRadius();
+		totalMass = centralMass;
+		centerX = centralMass * central.getPosition().x;
+		centerY = centralMass * central.getPosition().y;
+		centerSpeedX = centralMass * central.getSpeed().x;
+		centerSpeedY = centralMass * central.getSpeed().y;
+		for (int i = 0; i < massiveCount; i++) {
+			Planet planet = bodies.get(i);
+			totalMass += planet.getMass();
+			centerX += planet.getMass() * planet.getPosition().x;
+			centerY += planet.getMass() * planet.getPosition().y;
+			centerSpeedX += planet.getMass() * planet.getSpeed().x;
+			centerSpeedY += planet.getMass() * planet.getSpeed().y;
+		}
+		centerX /= totalMass;
+		centerY /= totalMass;
+		centerSpeedX /= totalMass;
+		centerSpeedY /= totalMass;
+
+		for (int i = 0; i < bodyCount; i++) {
+			Planet planet = bodies.get(i);
+			mass[i] = i < massiveCount ? planet.getMass() : 0.0;
+			radius[i] = planet.getRadius();
+			x[i] = planet.getPosition().x - central.getPosition().x;
+			y[i] = planet.getPosition().y - central.getPosition().y;
+			vx[i] = planet.getSpeed().x - centerSpeedX;
+			vy[i] = planet.getSpeed().y - centerSpeedY;
+		}
+		return true;
+	}
+
+	private boolean advance(double deltaTime) {
+		double halfDeltaTime = deltaTime * 0.5;
+		beginConservedQuantities();
+		addCentralConservedQuantities();
+		jump(halfDeltaTime);
+		// the jump moves all bodies by the same offset, so the first kick sees the distances at the beginning of the step
+		kick(halfDeltaTime, false, true);
+		keplerDrift(gravity * centralMass, deltaTime);
+		boolean collided = kick(halfDeltaTime, collisions, false);
+		jump(halfDeltaTime);
+		endConservedQuantities();
+
+		centerX += centerSpeedX * deltaTime;
+		centerY += centerSpeedY * deltaTime;
+
+		if (collisions) {
+			for (int i = 0; i < bodyCount; i++) {
+				if (x[i] * x[i] + y[i] * y[i] < square(radius[i] + centralRadius)) {
+					collided = true;
+				}
+			}
+		}
+		return collided;
+	}
+
+	/**
+	 * Adds the barycentric kinetic energy, momentum and angular momentum of all massive planets
+	 * and the potential energy between the central body and the other planets.
+	 */
+	private void addCentralConservedQuantities() {
+		double momentX = 0;
+		double momentY = 0;
+		double momentumX = 0;
+		double momentumY = 0;
+		for (int i = 0; i < massiveCount; i++) {
+			momentX += mass[i] * x[i];
+			momentY += mass[i] * y[i];
+			momentumX += mass[i] * vx[i];
+			momentumY += mass[i] * vy[i];
+		}
+		double centralX = centerX - momentX / totalMass;
+		double centralY = centerY - momentY / totalMass;
+		addConservedQuantities(centralMass, centralX, centralY, centerSpeedX - momentumX / centralMass, centerSpeedY - momentumY / centralMass);
+
+		for (int i = 0; i < massiveCount; i++) {
+			addConservedQuantities(mass[i], x[i] + centralX, y[i] + centralY, vx[i] + centerSpeedX, vy[i] + centerSpeedY);
+			addPotentialEnergy(-gravity * centralMass * mass[i] / Math.sqrt(x[i] * x[i] + y[i] * y[i]));
+		}
+	}
+
+	private void store(int tailLength) {
+		double momentX = 0;
+		double momentY = 0;
+		double momentumX = 0;
+		double momentumY = 0;
+		for (int i = 0; i < massiveCount; i++) {
+			momentX += mass[i] * x[i];
+			momentY += mass[i] * y[i];
+			momentumX += mass[i] * vx[i];
+			momentumY += mass[i] * vy[i];
+		}
+		double centralX = centerX - momentX / totalMass;
+		double centralY = centerY - momentY / totalMass;
+		central.setPosition(Vector2.of(centralX, centralY), tailLength);
+		central.setSpeed(Vector2.of(centerSpeedX - momentumX / centralMass, centerSpeedY - momentumY / centralMass));
+
+		for (int i = 0; i < bodyCount; i++) {
+			Planet planet = bodies.get(i);
+			planet.setPosition(Vector2.of(x[i] + centralX, y[i] + centralY), tailLength);
+			planet.setSpeed(Vector2.of(vx[i] + centerSpeedX, vy[i] + centerSpeedY));
+		}
+	}
+
+	private Planet findCentral() {
+		Planet heaviest = null;
+		for (Planet planet : planets) {
+			if (heaviest == null || planet.getMass() > heaviest.getMass()) {
+				heaviest = planet;
+			}
+		}
+		return heaviest;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (mass.length < capacity) {
+			mass = new double[capacity];
+			radius = new double[capacity];
+			x = new double[capacity];
+			y = new double[capacity];
+			vx = new double[capacity];
+			vy = new double[capacity];
+			collisionPartner = new int[capacity];
+		}
+	}
+
+	private void jump(double deltaTime) {
+		double momentumX = 0;
+		double momentumY = 0;
+		for (int i = 0; i < massiveCount; i++) {
+			momentumX += mass[i] * vx[i];
+			momentumY += mass[i] * vy[i];
+		}
+		double deltaX = momentumX / centralMass * deltaTime;
+		double deltaY = momentumY / centralMass * deltaTime;
+		for (int i = 0; i < bodyCount; i++) {
+			x[i] += deltaX;
+			y[i] += deltaY;
+		}
+	}
+
+	/**
+	 * Kicks the speeds with the interactions between the non-central planets.
+	 * 
+	 * @param conserved <code>true</code> to add the potential energy between the non-central massive planets
+	 * @return <code>true</code> if a collision was detected
+	 */
+	private boolean kick(double deltaTime, boolean detectCollisions, boolean conserved) {
+		boolean collided = false;
+		double potential = 0;
+		for (int i = 0; i < bodyCount; i++) {
+			double accelerationX = 0;
+			double accelerationY = 0;
+			double planetPotential = 0;
+			collisionPartner[i] = -1;
+			for (int j = 0; j < massiveCount; j++) {
+				if (i != j) {
+					double deltaX = x[j] - x[i];
+					double deltaY = y[j] - y[i];
+					double distanceSquared = deltaX * deltaX + deltaY * deltaY;
+					double distance = Math.sqrt(distanceSquared);
+					if (detectCollisions && collisionPartner[i] < 0 && distance < radius[i] + radius[j]) {
+						collisionPartner[i] = j;
+						collided = true;
+					}
+					double magnitude = gravity * mass[j] / (distanceSquared * distance);
+					accelerationX += deltaX * magnitude;
+					accelerationY += deltaY * magnitude;
+					planetPotential -= magnitude * distanceSquared;
+				}
+			}
+			vx[i] += accelerationX * deltaTime;
+			vy[i] += accelerationY * deltaTime;
+			// every pair is visited twice
+			potential += 0.5 * mass[i] * planetPotential;
+		}
+		if (conserved) {
+			addPotentialEnergy(potential);
+		}
+		return collided;
+	}
+
+	private void keplerDrift(double mu, double deltaTime) {
+		for (int i = 0; i < bodyCount; i++) {
+			double r0 = Math.sqrt(x[i] * x[i] + y[i] * y[i]);
+			if (r0 == 0 || mu == 0) {
+				x[i] += vx[i] * deltaTime;
+				y[i] += vy[i] * deltaTime;
+				continue;
+			}
+
+			double sqrtMu = Math.sqrt(mu);
+			double speedSquared = vx[i] * vx[i] + vy[i] * vy[i];
+			double radialSpeed = (x[i] * vx[i] + y[i] * vy[i]) / sqrtMu;
+			double alpha = 2.0 / r0 - speedSquared / mu;
+
+			double chi = alpha > 0 ? sqrtMu * deltaTime * alpha : sqrtMu * deltaTime / r0;
+			double c = 0.5;
+			double s = 1.0 / 6.0;
+			double r = r0;
+			for (int iteration = 0; iteration < MAX_KEPLER_ITERATIONS; iteration++) {
+				double chiSquared = chi * chi;
+				double z = alpha * chiSquared;
+				c = stumpffC(z);
+				s = stumpffS(z);
+				double f = radialSpeed * chiSquared * c + (1.0 - alpha * r0) * chiSquared * chi * s + r0 * chi - sqrtMu * deltaTime;
+				r = radialSpeed * chi * (1.0 - z * s) + (1.0 - alpha * r0) * chiSquared * c + r0;
+				double deltaChi = f / r;
+				chi -= deltaChi;
+				if (Math.abs(deltaChi) <= KEPLER_TOLERANCE * Math.max(1.0, Math.abs(chi))) {
+					break;
+				}
+			}
+
+			double chiSquared = chi * chi;
+			double z = alpha * chiSquared;
+			c = stumpffC(z);
+			s = stumpffS(z);
+			double f = 1.0 - chiSquared / r0 * c;
+			double g = deltaTime - chiSquared * chi / sqrtMu * s;
+			double newX = f * x[i] + g * vx[i];
+			double newY = f * y[i] + g * vy[i];
+			r = Math.sqrt(newX * newX + newY * newY);
+			double fDot = sqrtMu / (r * r0) * (z * s - 1.0) * chi;
+			double gDot = 1.0 - chiSquared / r * c;
+
+			double newSpeedX = fDot * x[i] + gDot * vx[i];
+			double newSpeedY = fDot * y[i] + gDot * vy[i];
+			x[i] = newX;
+			y[i] = newY;
+			vx[i] = newSpeedX;
+			vy[i] = newSpeedY;
+		}
+	}
+
+	private static double stumpffC(double z) {
+		if (z > 1e-6) {
+			return (1.0 - Math.cos(Math.sqrt(z))) / z;
+		}
+		if (z < -1e-6) {
+			return (Math.cosh(Math.sqrt(-z)) - 1.0) / -z;
+		}
+		return 0.5 - z / 24.0 + z * z / 720.0;
+	}
+
+	private static double stumpffS(double z) {
+		if (z > 1e-6) {
+			double sqrtZ = Math.sqrt(z);
+			return (sqrtZ - Math.sin(sqrtZ)) / (sqrtZ * sqrtZ * sqrtZ);
+		}
+		if (z < -1e-6) {
+			double sqrtZ = Math.sqrt(-z);
+			return (Math.sinh(sqrtZ) - sqrtZ) / (sqrtZ * sqrtZ * sqrtZ);
+		}
+		return 1.0 / 6.0 - z / 120.0 + z * z / 5040.0;
+	}
+
+	private void mergeCollisions() {
+		for (int i = 0; i < bodyCount; i++) {
+			Planet planet = bodies.get(i);
+			if (planet.isDeleted()) {
+				continue;
+			}
+			if (!central.isDeleted() && x[i] * x[i] + y[i] * y[i] < square(planet.getRadius() + central.getRadius())) {
+				merge(planet, central);
+			} else if (collisionPartner[i] >= 0) {
+				Planet other = bodies.get(collisionPartner[i]);
+				if (!other.isDeleted()) {
+					merge(planet, other);
+				}
+			}
+		}
+	}
+
+	private void merge(Planet planet, Planet other) {
+		if (planet.getMass() < other.getMass()) {
+			collisionEvents.merge(other, planet);
+		} else {
+			collisionEvents.merge(planet, other);
+		}
+	}
+
+	private static double square(double value) {
+		return value * value;
+	}
+}
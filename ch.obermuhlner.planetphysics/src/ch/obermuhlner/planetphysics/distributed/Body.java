@@ -0,0 +1,48 @@
+package ch.obermuhlner.planetphysics.distributed;
+
+/**
+ * State of a planet owned by a {@link DistributedWorker}, identified by a global id.
+ */
+class Body {
+	long id;
+	String name;
+	double x;
+	double y;
+	double speedX;
+	double speedY;
+	double mass;
+	double hue;
+	boolean deleted;
+
+	double getRadius() {
+		return Math.sqrt(mass);
+	}
+
+	/**
+	 * Returns whether this body survives a collision with the other body.
+	 *
+	 * Both workers that see a collision across a region boundary come to the same decision.
+	 */
+	boolean survives(Body other) {
+		return mass > other.mass || (mass == other.mass && id < other.id);
+	}
+
+	/**
+	 * Merges the other body into this body, with the same rules as {@link ch.obermuhlner.planetphysics.Planet#merge(ch.obermuhlner.planetphysics.Planet)}.
+	 */
+	void merge(Body other) {
+		other.deleted = true;
+
+		if (name == null) {
+			name = other.name;
+		}
+		name = mass > other.mass ? name : other.name;
+		hue = mass > other.mass ? hue : other.hue;
+		double totalMass = mass + other.mass;
+		if (totalMass > 0) {
+			speedX = (speedX * mass + other.speedX * other.mass) / totalMass;
+			speedY = (speedY * mass + other.speedY * other.mass) / totalMass;
+		}
+		mass = totalMass;
+	}
+}
@@ -0,0 +1,476 @@
+package ch.obermuhlner.planetphysics.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import ch.obermuhlner.planetphysics.BruteForceSimulation;
+import ch.obermuhlner.planetphysics.CollisionEventStream;
+import ch.obermuhlner.planetphysics.ConservedQuantities;
+import ch.obermuhlner.planetphysics.Planet;
+import ch.obermuhlner.planetphysics.Simulation;
+import ch.obermuhlner.planetphysics.math.Vector2;
+
+/**
+ * Simulation that partitions space into slabs along the x axis and simulates every slab in a {@link DistributedWorker} process.
+ *
+ * The slab boundaries are chosen at the first step so that all workers own the same number of bodies.
+ * Every step the coordinator collects the ghost bodies and the cell mass summaries of the other bodies of all workers,
+ * sends every worker the ghost bodies of its two neighbors and the summaries of all other cells
+ * (including the ghost bodies it does not receive exactly) and routes the bodies that migrated to another slab.
+ * The summaries are only ever added up, so a cell never contains the floating point residue of a subtraction.
+ * The workers integrate their bodies in parallel and report their conserved quantities, which are added up by the coordinator.
+ *
+ * The ghost width must be larger than the collision distance of the biggest bodies,
+ * the accuracy of the far field depends on the ratio of ghost width to cell size.
+ * Only planets with a mass of 0 are weightless.
+ */
+public class DistributedSimulation implements Simulation, AutoCloseable {
+
+	private final List<Connection> workers = new ArrayList<>();
+	private final List<Process> processes = new ArrayList<>();
+
+	private double gravity = BruteForceSimulation.GRAVITY;
+	private boolean collisions = true;
+	private double ghostWidth = 100.0;
+	private double cellSize = 25.0;
+
+	private double[] boundaries;
+	private final List<Body> unpartitioned = new ArrayList<>();
+	private final List<List<Body>> pendingAdds = new ArrayList<>();
+	private long nextId;
+
+	private Map<Long, Planet> planetsById = new HashMap<>();
+	private final List<Planet> planets = new ArrayList<>();
+	private final List<Planet> weightlessPlanets = new ArrayList<>();
+	private boolean gathered;
+	private int tailLength;
+
+	private final CollisionEventStream collisionEvents = new CollisionEventStream();
+	private ConservedQuantities conservedQuantities;
+
+	/**
+	 * Connects to running workers.
+	 *
+	 * @param addresses the addresses of the workers, one per slab
+	 * @throws IOException if a worker could not be connected
+	 */
+	public DistributedSimulation(List<InetSocketAddress> addresses) throws IOException {
+		for (InetSocketAddress address : addresses) {
+			workers.add(new Connection(address));
+			pendingAdds.add(new ArrayList<>());
+		}
+	}
+
+	/**
+	 * Starts worker processes on the local machine with the class path of the current process and connects to them.
+	 *
+	 * The processes are destroyed by {@link #close()}.
+	 *
+	 * @param workerCount the number of workers
+	 * @param jvmOptions additional options for the worker JVMs, for example <code>-Xmx4g</code>
+	 * @return the created simulation
+	 * @throws IOException if a worker could not be started or connected
+	 */
+	public static DistributedSimulation launchLocal(int workerCount, String... jvmOptions) throws IOException {
+		List<Process> processes = new ArrayList<>();
+		List<InetSocketAddress> addresses = new ArrayList<>();
+		try {
+			for (int i = 0; i < workerCount; i++) {
+				List<String> command = new ArrayList<>();
+				command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+				command.addAll(Arrays.asList(jvmOptions));
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add(DistributedWorker.class.getName());
+				command.add("0");
+
+				Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+				processes.add(process);
+
+				BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+				String line = reader.readLine();
+				if (line == null || !line.startsWith(Protocol.LISTENING)) {
+					throw new IOException("Worker did not start: " + line);
+				}
+				int port = Integer.parseInt(line.substring(Protocol.LISTENING.length()).trim());
+				addresses.add(new InetSocketAddress("localhost", port));
+			}
+
+			DistributedSimulation simulation = new DistributedSimulation(addresses);
+			simulation.processes.addAll(processes);
+			return simulation;
+		} catch (IOException | RuntimeException e) {
+			for (Process process : processes) {
+				process.destroy();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Sets the width of the band at the slab boundaries in which bodies are sent exactly to the neighbor.
+	 *
+	 * Takes effect when the space is partitioned, at the first step after creation or {@link #clear()}.
+	 *
+	 * @param ghostWidth the ghost width
+	 */
+	public void setGhostWidth(double ghostWidth) {
+		this.ghostWidth = ghostWidth;
+	}
+
+	/**
+	 * Sets the size of the cells that summarize the mass of a slab for the far field.
+	 *
+	 * Takes effect when the space is partitioned, at the first step after creation or {@link #clear()}.
+	 *
+	 * @param cellSize the cell size
+	 */
+	public void setCellSize(double cellSize) {
+		this.cellSize = cellSize;
+	}
+
+	@Override
+	public void setCollisions(boolean collisions) {
+		this.collisions = collisions;
+	}
+
+	@Override
+	public void setGravity(double gravity) {
+		this.gravity = gravity;
+		conservedQuantities = null;
+	}
+
+	@Override
+	public double getGravity() {
+		return gravity;
+	}
+
+	@Override
+	public void clear() {
+		try {
+			for (Connection worker : workers) {
+				worker.out.writeByte(Protocol.CLEAR);
+				worker.out.flush();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		boundaries = null;
+		unpartitioned.clear();
+		for (List<Body> pending : pendingAdds) {
+			pending.clear();
+		}
+		planetsById = new HashMap<>();
+		gathered = false;
+		conservedQuantities = null;
+	}
+
+	@Override
+	public void add(Planet planet) {
+		Body body = new Body();
+		body.id = nextId++;
+		body.name = planet.getName();
+		body.x = planet.getPosition().x;
+		body.y = planet.getPosition().y;
+		body.speedX = planet.getSpeed().x;
+		body.speedY = planet.getSpeed().y;
+		body.mass = planet.getMass();
+		body.hue = planet.getHue();
+
+		planetsById.put(body.id, planet);
+		if (boundaries == null) {
+			unpartitioned.add(body);
+		} else {
+			pendingAdds.get(owner(body.x)).add(body);
+		}
+		gathered = false;
+		conservedQuantities = null;
+	}
+
+	@Override
+	public Collection<Planet> getPlanets() {
+		gather();
+		return Collections.unmodifiableCollection(planets);
+	}
+
+	@Override
+	public Collection<Planet> getWeightlessPlanets() {
+		gather();
+		return Collections.unmodifiableCollection(weightlessPlanets);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The planets are merged inside the worker processes, no collision events are published.
+	 */
+	@Override
+	public CollisionEventStream getCollisionEvents() {
+		return collisionEvents;
+	}
+
+	/**
+	 * Returns the conserved quantities of the state at the beginning of the last simulated step.
+	 *
+	 * The workers calculate them in the same pass that calculates the gravity,
+	 * before the first step (or after planets were added) the quantities are calculated by direct summation.
+	 */
+	@Override
+	public ConservedQuantities getConservedQuantities() {
+		if (conservedQuantities == null) {
+			conservedQuantities = ConservedQuantities.calculate(this);
+		}
+		return conservedQuantities;
+	}
+
+	@Override
+	public void simulateStep(double deltaTime, int tailLength) {
+		collisionEvents.nextStep();
+		partition();
+		if (boundaries == null) {
+			return;
+		}
+
+		try {
+			flushPendingAdds();
+
+			int workerCount = workers.size();
+			for (Connection worker : workers) {
+				worker.out.writeByte(Protocol.STEP);
+				worker.out.writeDouble(deltaTime);
+				worker.out.writeDouble(gravity);
+				worker.out.writeBoolean(collisions);
+				worker.out.flush();
+			}
+
+			List<Map<Long, double[]>> cells = new ArrayList<>();
+			List<List<Body>> ghostsLeft = new ArrayList<>();
+			List<List<Body>> ghostsRight = new ArrayList<>();
+			for (Connection worker : workers) {
+				cells.add(Protocol.readCells(worker.in));
+				ghostsLeft.add(Protocol.readBodies(worker.in));
+				ghostsRight.add(Protocol.readBodies(worker.in));
+			}
+
+			for (int w = 0; w < workerCount; w++) {
+				List<Body> ghosts = new ArrayList<>();
+				Map<Long, double[]> farCells = new HashMap<>();
+				for (int j = 0; j < workerCount; j++) {
+					if (j == w) {
+						continue;
+					}
+					for (Map.Entry<Long, double[]> entry : cells.get(j).entrySet()) {
+						double[] cell = farCells.computeIfAbsent(entry.getKey(), key -> new double[3]);
+						for (int k = 0; k < 3; k++) {
+							cell[k] += entry.getValue()[k];
+						}
+					}
+					List<Body> neighborGhosts = j == w - 1 ? ghostsRight.get(j) : j == w + 1 ? ghostsLeft.get(j) : Collections.<Body>emptyList();
+					ghosts.addAll(neighborGhosts);
+
+					// a body in both ghost bands of a narrow slab is only added once
+					Set<Long> summarized = new HashSet<>();
+					for (Body ghost : neighborGhosts) {
+						summarized.add(ghost.id);
+					}
+					for (List<Body> bandGhosts : Arrays.asList(ghostsLeft.get(j), ghostsRight.get(j))) {
+						for (Body ghost : bandGhosts) {
+							if (summarized.add(ghost.id)) {
+								Protocol.addToCell(farCells, cellSize, ghost);
+							}
+						}
+					}
+				}
+
+				Connection worker = workers.get(w);
+				worker.out.writeByte(Protocol.FIELD);
+				Protocol.writeBodies(worker.out, ghosts);
+				Protocol.writeCells(worker.out, farCells);
+				worker.out.flush();
+			}
+
+			double kineticEnergy = 0;
+			double potentialEnergy = 0;
+			double momentumX = 0;
+			double momentumY = 0;
+			double angularMomentum = 0;
+			for (Connection worker : workers) {
+				ConservedQuantities quantities = Protocol.readConservedQuantities(worker.in);
+				kineticEnergy += quantities.kineticEnergy;
+				potentialEnergy += quantities.potentialEnergy;
+				momentumX += quantities.momentumX;
+				momentumY += quantities.momentumY;
+				angularMomentum += quantities.angularMomentum;
+				for (Body migrant : Protocol.readBodies(worker.in)) {
+					pendingAdds.get(owner(migrant.x)).add(migrant);
+				}
+			}
+			conservedQuantities = new ConservedQuantities(kineticEnergy, potentialEnergy, momentumX, momentumY, angularMomentum);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		this.tailLength = tailLength;
+		gathered = false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			for (Connection worker : workers) {
+				worker.out.writeByte(Protocol.SHUTDOWN);
+				worker.out.flush();
+				worker.socket.close();
+			}
+		} finally {
+			for (Process process : processes) {
+				try {
+					if (!process.waitFor(5, TimeUnit.SECONDS)) {
+						process.destroy();
+					}
+				} catch (InterruptedException e) {
+					process.destroy();
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+	private void partition() {
+		if (boundaries != null || unpartitioned.isEmpty()) {
+			return;
+		}
+
+		int workerCount = workers.size();
+		double[] sortedX = new double[unpartitioned.size()];
+		for (int i = 0; i < sortedX.length; i++) {
+			sortedX[i] = unpartitioned.get(i).x;
+		}
+		Arrays.sort(sortedX);
+
+		boundaries = new double[workerCount + 1];
+		boundaries[0] = Double.NEGATIVE_INFINITY;
+		for (int w = 1; w < workerCount; w++) {
+			boundaries[w] = sortedX[(int) ((long) sortedX.length * w / workerCount)];
+		}
+		boundaries[workerCount] = Double.POSITIVE_INFINITY;
+
+		try {
+			for (int w = 0; w < workerCount; w++) {
+				DataOutputStream out = workers.get(w).out;
+				out.writeByte(Protocol.INIT);
+				out.writeInt(w);
+				out.writeInt(workerCount);
+				out.writeDouble(boundaries[w]);
+				out.writeDouble(boundaries[w + 1]);
+				out.writeDouble(ghostWidth);
+				out.writeDouble(cellSize);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		for (Body body : unpartitioned) {
+			pendingAdds.get(owner(body.x)).add(body);
+		}
+		unpartitioned.clear();
+	}
+
+	private int owner(double x) {
+		int index = Arrays.binarySearch(boundaries, x);
+		int owner = index >= 0 ? index : -index - 2;
+		return Math.max(0, Math.min(workers.size() - 1, owner));
+	}
+
+	private void flushPendingAdds() throws IOException {
+		for (int w = 0; w < workers.size(); w++) {
+			List<Body> pending = pendingAdds.get(w);
+			if (!pending.isEmpty()) {
+				DataOutputStream out = workers.get(w).out;
+				out.writeByte(Protocol.ADD);
+				Protocol.writeBodies(out, pending);
+				out.flush();
+				pending.clear();
+			}
+		}
+	}
+
+	private void gather() {
+		if (gathered) {
+			return;
+		}
+
+		partition();
+		if (boundaries != null) {
+			try {
+				flushPendingAdds();
+				for (Connection worker : workers) {
+					worker.out.writeByte(Protocol.GATHER);
+					worker.out.flush();
+				}
+
+				Map<Long, Planet> gatheredPlanets = new HashMap<>(planetsById.size() * 2);
+				for (Connection worker : workers) {
+					for (Body body : Protocol.readBodies(worker.in)) {
+						Planet planet = planetsById.get(body.id);
+						if (planet == null || planet.getMass() != body.mass) {
+							// merged planets are replaced, so that name and hue of the bigger planet are shown
+							planet = new Planet(body.name, Vector2.of(body.x, body.y), Vector2.of(body.speedX, body.speedY), body.mass, body.hue);
+						} else {
+							planet.setPosition(Vector2.of(body.x, body.y), tailLength);
+							planet.setSpeed(Vector2.of(body.speedX, body.speedY));
+						}
+						gatheredPlanets.put(body.id, planet);
+					}
+				}
+				planetsById = gatheredPlanets;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		planets.clear();
+		weightlessPlanets.clear();
+		for (Planet planet : planetsById.values()) {
+			if (planet.getMass() > 0) {
+				planets.add(planet);
+			} else {
+				weightlessPlanets.add(planet);
+			}
+		}
+		gathered = true;
+	}
+
+	private static class Connection {
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+
+		Connection(InetSocketAddress address) throws IOException {
+			socket = new Socket(address.getAddress(), address.getPort());
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package ch.obermuhlner.planetphysics.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import ch.obermuhlner.planetphysics.ConservedQuantities;
+
+/**
+ * Worker process of a {@link DistributedSimulation} that owns the bodies of one region of space.
+ *
+ * The region is a slab <code>minX &lt;= x &lt; maxX</code>.
+ * Every step the worker reports its ghost bodies close to the neighbor regions and a mass summary per cell of its other bodies,
+ * receives the ghost bodies of its neighbors and the cell summaries of all other regions,
+ * integrates its own bodies and returns its conserved quantities and the bodies that left its region.
+ *
+ * Usage: <code>java ch.obermuhlner.planetphysics.distributed.DistributedWorker [port]</code>
+ */
+public class DistributedWorker {
+
+	private final List<Body> bodies = new ArrayList<>();
+
+	private int index;
+	private int workerCount;
+	private double minX;
+	private double maxX;
+	private double ghostWidth;
+	private double cellSize;
+
+	private double deltaTime;
+	private double gravity;
+	private boolean collisions;
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+
+		try (ServerSocket serverSocket = new ServerSocket(port)) {
+			System.out.println(Protocol.LISTENING + serverSocket.getLocalPort());
+			System.out.flush();
+
+			try (Socket socket = serverSocket.accept()) {
+				new DistributedWorker().serve(socket);
+			}
+		}
+	}
+
+	/**
+	 * Executes the requests of the coordinator until it shuts down the worker or closes the connection.
+	 *
+	 * @param socket the connection to the coordinator
+	 * @throws IOException if the communication failed
+	 */
+	public void serve(Socket socket) throws IOException {
+		socket.setTcpNoDelay(true);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+		try {
+			while (true) {
+				byte command = in.readByte();
+				switch (command) {
+				case Protocol.INIT:
+					index = in.readInt();
+					workerCount = in.readInt();
+					minX = in.readDouble();
+					maxX = in.readDouble();
+					ghostWidth = in.readDouble();
+					cellSize = in.readDouble();
+					break;
+				case Protocol.ADD:
+					bodies.addAll(Protocol.readBodies(in));
+					break;
+				case Protocol.CLEAR:
+					bodies.clear();
+					break;
+				case Protocol.STEP:
+					deltaTime = in.readDouble();
+					gravity = in.readDouble();
+					collisions = in.readBoolean();
+					writeBoundary(out);
+					break;
+				case Protocol.FIELD:
+					List<Body> ghosts = Protocol.readBodies(in);
+					Map<Long, double[]> cells = Protocol.readCells(in);
+					Protocol.writeConservedQuantities(out, integrate(ghosts, cells));
+					Protocol.writeBodies(out, removeMigrants());
+					out.flush();
+					break;
+				case Protocol.GATHER:
+					Protocol.writeBodies(out, bodies);
+					out.flush();
+					break;
+				case Protocol.SHUTDOWN:
+					return;
+				default:
+					throw new IOException("Unknown command: " + command);
+				}
+			}
+		} catch (EOFException e) {
+			// coordinator closed the connection
+		}
+	}
+
+	private void writeBoundary(DataOutputStream out) throws IOException {
+		Map<Long, double[]> cells = new HashMap<>();
+		List<Body> ghostsLeft = new ArrayList<>();
+		List<Body> ghostsRight = new ArrayList<>();
+		for (Body body : bodies) {
+			if (body.mass > 0) {
+				boolean ghost = false;
+				if (index > 0 && body.x < minX + ghostWidth) {
+					ghostsLeft.add(body);
+					ghost = true;
+				}
+				if (index < workerCount - 1 && body.x >= maxX - ghostWidth) {
+					ghostsRight.add(body);
+					ghost = true;
+				}
+				if (!ghost) {
+					// the coordinator adds the ghost bodies to the far field of the workers that do not receive them exactly
+					Protocol.addToCell(cells, cellSize, body);
+				}
+			}
+		}
+
+		Protocol.writeCells(out, cells);
+		Protocol.writeBodies(out, ghostsLeft);
+		Protocol.writeBodies(out, ghostsRight);
+		out.flush();
+	}
+
+	/**
+	 * Integrates the bodies of the worker.
+	 *
+	 * Every pair with a body of another worker is seen by both workers (as ghost or in a cell),
+	 * so the potential energy of all pairs is halved like the pairs inside the worker.
+	 *
+	 * @return the conserved quantities of the massive bodies of the worker at the beginning of the step
+	 */
+	private ConservedQuantities integrate(List<Body> ghosts, Map<Long, double[]> cells) {
+		int cellCount = cells.size();
+		double[] cellMass = new double[cellCount];
+		double[] cellX = new double[cellCount];
+		double[] cellY = new double[cellCount];
+		int c = 0;
+		for (double[] cell : cells.values()) {
+			cellMass[c] = cell[0];
+			cellX[c] = cell[1] / cell[0];
+			cellY[c] = cell[2] / cell[0];
+			c++;
+		}
+
+		double kineticEnergy = 0;
+		double potentialEnergy = 0;
+		double momentumX = 0;
+		double momentumY = 0;
+		double angularMomentum = 0;
+		for (Body body : bodies) {
+			if (body.deleted) {
+				continue;
+			}
+
+			double accelerationX = 0;
+			double accelerationY = 0;
+			double potential = 0;
+			for (Body other : bodies) {
+				if (other == body || other.deleted || other.mass <= 0) {
+					continue;
+				}
+				double deltaX = body.x - other.x;
+				double deltaY = body.y - other.y;
+				double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+				if (collisions && distance < body.getRadius() + other.getRadius()) {
+					if (body.mass == 0.0) {
+						other.merge(body);
+						break;
+					}
+					body.merge(other);
+				} else {
+					double magnitude = -gravity * other.mass / (distance * distance * distance);
+					accelerationX += deltaX * magnitude;
+					accelerationY += deltaY * magnitude;
+					potential += magnitude * distance * distance;
+				}
+			}
+			if (body.deleted) {
+				continue;
+			}
+
+			for (Body ghost : ghosts) {
+				if (ghost.deleted) {
+					continue;
+				}
+				double deltaX = body.x - ghost.x;
+				double deltaY = body.y - ghost.y;
+				double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+				if (collisions && distance < body.getRadius() + ghost.getRadius()) {
+					// the neighbor that owns the ghost makes the complementary decision
+					if (body.survives(ghost)) {
+						body.merge(ghost);
+					} else {
+						body.deleted = true;
+						break;
+					}
+				} else {
+					double magnitude = -gravity * ghost.mass / (distance * distance * distance);
+					accelerationX += deltaX * magnitude;
+					accelerationY += deltaY * magnitude;
+					potential += magnitude * distance * distance;
+				}
+			}
+			if (body.deleted) {
+				continue;
+			}
+
+			for (int i = 0; i < cellCount; i++) {
+				double deltaX = body.x - cellX[i];
+				double deltaY = body.y - cellY[i];
+				double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+				double magnitude = -gravity * cellMass[i] / (distance * distance * distance);
+				accelerationX += deltaX * magnitude;
+				accelerationY += deltaY * magnitude;
+				potential += magnitude * distance * distance;
+			}
+
+			kineticEnergy += 0.5 * body.mass * (body.speedX * body.speedX + body.speedY * body.speedY);
+			potentialEnergy += 0.5 * body.mass * potential;
+			momentumX += body.mass * body.speedX;
+			momentumY += body.mass * body.speedY;
+			angularMomentum += body.mass * (body.x * body.speedY - body.y * body.speedX);
+
+			body.speedX += accelerationX * deltaTime;
+			body.speedY += accelerationY * deltaTime;
+		}
+
+		Iterator<Body> iterator = bodies.iterator();
+		while (iterator.hasNext()) {
+			Body body = iterator.next();
+			if (body.deleted) {
+				iterator.remove();
+			} else {
+				body.x += body.speedX * deltaTime;
+				body.y += body.speedY * deltaTime;
+			}
+		}
+		return new ConservedQuantities(kineticEnergy, potentialEnergy, momentumX, momentumY, angularMomentum);
+	}
+
+	private List<Body> removeMigrants() {
+		if (workerCount <= 1) {
+			return Collections.emptyList();
+		}
+
+		List<Body> migrants = new ArrayList<>();
+		Iterator<Body> iterator = bodies.iterator();
+		while (iterator.hasNext()) {
+			Body body = iterator.next();
+			if (body.x < minX || body.x >= maxX) {
+				migrants.add(body);
+				iterator.remove();
+			}
+		}
+		return migrants;
+	}
+}
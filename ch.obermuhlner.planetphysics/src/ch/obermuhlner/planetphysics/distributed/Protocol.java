@@ -0,0 +1,128 @@
+package ch.obermuhlner.planetphysics.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.obermuhlner.planetphysics.ConservedQuantities;
+
+/**
+ * Messages exchanged between {@link DistributedSimulation} and {@link DistributedWorker}.
+ *
+ * Every request starts with a command byte, the worker answers {@link #STEP}, {@link #FIELD} and {@link #GATHER}.
+ * The answer to {@link #FIELD} contains the conserved quantities of the worker at the beginning of the step and the migrated bodies.
+ */
+final class Protocol {
+
+	static final byte INIT = 1;
+	static final byte ADD = 2;
+	static final byte CLEAR = 3;
+	static final byte STEP = 4;
+	static final byte FIELD = 5;
+	static final byte GATHER = 6;
+	static final byte SHUTDOWN = 7;
+
+	static final String LISTENING = "LISTENING ";
+
+	private Protocol() {
+	}
+
+	static void writeBodies(DataOutputStream out, List<Body> bodies) throws IOException {
+		out.writeInt(bodies.size());
+		for (Body body : bodies) {
+			writeBody(out, body);
+		}
+	}
+
+	static List<Body> readBodies(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		List<Body> bodies = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			bodies.add(readBody(in));
+		}
+		return bodies;
+	}
+
+	static void writeBody(DataOutputStream out, Body body) throws IOException {
+		out.writeLong(body.id);
+		out.writeDouble(body.x);
+		out.writeDouble(body.y);
+		out.writeDouble(body.speedX);
+		out.writeDouble(body.speedY);
+		out.writeDouble(body.mass);
+		out.writeDouble(body.hue);
+		out.writeBoolean(body.name != null);
+		if (body.name != null) {
+			out.writeUTF(body.name);
+		}
+	}
+
+	static Body readBody(DataInputStream in) throws IOException {
+		Body body = new Body();
+		body.id = in.readLong();
+		body.x = in.readDouble();
+		body.y = in.readDouble();
+		body.speedX = in.readDouble();
+		body.speedY = in.readDouble();
+		body.mass = in.readDouble();
+		body.hue = in.readDouble();
+		if (in.readBoolean()) {
+			body.name = in.readUTF();
+		}
+		return body;
+	}
+
+	/**
+	 * Writes mass summaries of cells as <code>long key, double mass, double massX, double massY</code>,
+	 * where <code>massX</code> and <code>massY</code> are the mass weighted positions.
+	 */
+	static void writeCells(DataOutputStream out, Map<Long, double[]> cells) throws IOException {
+		out.writeInt(cells.size());
+		for (Map.Entry<Long, double[]> entry : cells.entrySet()) {
+			double[] cell = entry.getValue();
+			out.writeLong(entry.getKey());
+			out.writeDouble(cell[0]);
+			out.writeDouble(cell[1]);
+			out.writeDouble(cell[2]);
+		}
+	}
+
+	static Map<Long, double[]> readCells(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		Map<Long, double[]> cells = new HashMap<>(count * 2);
+		for (int i = 0; i < count; i++) {
+			long key = in.readLong();
+			cells.put(key, new double[] { in.readDouble(), in.readDouble(), in.readDouble() });
+		}
+		return cells;
+	}
+
+	static void writeConservedQuantities(DataOutputStream out, ConservedQuantities quantities) throws IOException {
+		out.writeDouble(quantities.kineticEnergy);
+		out.writeDouble(quantities.potentialEnergy);
+		out.writeDouble(quantities.momentumX);
+		out.writeDouble(quantities.momentumY);
+		out.writeDouble(quantities.angularMomentum);
+	}
+
+	static ConservedQuantities readConservedQuantities(DataInputStream in) throws IOException {
+		return new ConservedQuantities(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+	}
+
+	static void addToCell(Map<Long, double[]> cells, double cellSize, Body body) {
+		double[] cell = cells.computeIfAbsent(cellKey(body.x, body.y, cellSize), key -> new double[3]);
+		cell[0] += body.mass;
+		cell[1] += body.mass * body.x;
+		cell[2] += body.mass * body.y;
+	}
+
+	static long cellKey(double x, double y, double cellSize) {
+		long cellX = (long) Math.floor(x / cellSize);
+		long cellY = (long) Math.floor(y / cellSize);
+		return (cellX << 32) ^ (cellY & 0xffffffffL);
+	}
+}
@@ -5,23 +5,39 @@ import static ch.obermuhlner.planetphysics.javafx.ScenarioUtil.createOrbitingPla
 import static ch.obermuhlner.planetphysics.javafx.ScenarioUtil.createRandomPlanets;
 import static ch.obermuhlner.planetphysics.javafx.ScenarioUtil.random;
 
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.Format;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Supplier;
 
+import ch.obermuhlner.planetphysics.AdaptiveTimeStep;
+import ch.obermuhlner.planetphysics.HybridSimulation;
+import ch.obermuhlner.planetphysics.OffHeapSimulation;
+import ch.obermuhlner.planetphysics.ParticleMeshSimulation;
+import ch.obermuhlner.planetphysics.OrbitPredictor;
 import ch.obermuhlner.planetphysics.Planet;
+import ch.obermuhlner.planetphysics.RewindHistory;
 import ch.obermuhlner.planetphysics.BruteForceSimulation;
 import ch.obermuhlner.planetphysics.Simulation;
+import ch.obermuhlner.planetphysics.SimulationCommandQueue;
+import ch.obermuhlner.planetphysics.SpatialIndex;
+import ch.obermuhlner.planetphysics.SubsystemSimulation;
+import ch.obermuhlner.planetphysics.WisdomHolmanSimulation;
 import ch.obermuhlner.planetphysics.math.Vector2;
+import ch.obermuhlner.planetphysics.remote.Frame;
+import ch.obermuhlner.planetphysics.remote.SimulationClient;
+import ch.obermuhlner.planetphysics.remote.Viewport;
 import javafx.animation.Animation.Status;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.binding.Bindings;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.DoubleProperty;
@@ -30,6 +46,8 @@ import javafx.beans.property.Property;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
@@ -41,6 +59,7 @@ import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.ChoiceDialog;
 import javafx.scene.control.Label;
 import javafx.scene.control.Slider;
@@ -60,8 +79,27 @@ public class PlanetsSimulationApp extends Application {
 	private static final DecimalFormat DOUBLE_FORMAT = new DecimalFormat("##0.000");
 	private static final DecimalFormat SIMULATION_INTEGER_FORMAT = new DecimalFormat("##0");
 	private static final DecimalFormat SIMULATION_TIME_FORMAT = new DecimalFormat("##0.0");
+	private static final DecimalFormat SIMULATION_DRIFT_FORMAT = new DecimalFormat("0.000E0");
+
+	private static final int REWIND_STEPS = 100;
+	
+	static final Map<String, Supplier<List<Planet>>> SCENARIOS = new LinkedHashMap<>();
+	
+	private static final Map<String, Supplier<Simulation>> SIMULATIONS = new LinkedHashMap<>();
 	
-	private static final Map<String, Supplier<List<Planet>>> SCENARIOS = new LinkedHashMap<>();
+	static {
+		SIMULATIONS.put("Brute Force", BruteForceSimulation::new);
+		SIMULATIONS.put("Wisdom-Holman", WisdomHolmanSimulation::new);
+		SIMULATIONS.put("Particle Mesh", ParticleMeshSimulation::new);
+		SIMULATIONS.put("Particle Mesh (P3M)", () -> {
+			ParticleMeshSimulation simulation = new ParticleMeshSimulation();
+			simulation.setShortRangeCorrection(true);
+			return simulation;
+		});
+		SIMULATIONS.put("Hybrid", HybridSimulation::new);
+		SIMULATIONS.put("Subsystems", SubsystemSimulation::new);
+		SIMULATIONS.put("Off-Heap", () -> new OffHeapSimulation(1_000_000));
+	}
 	
 	static {
 		SCENARIOS.put("Simple Solar System", () -> {
@@ -242,10 +280,22 @@ public class PlanetsSimulationApp extends Application {
 	}
 	
 
-	private final Simulation simulation = new BruteForceSimulation();
+	private Simulation simulation = SIMULATIONS.values().iterator().next().get();
+	private final SimulationCommandQueue commandQueue = new SimulationCommandQueue();
+	private SpatialIndex spatialIndex = new SpatialIndex(simulation);
+	private Planet selectedPlanet;
+	private final RewindHistory rewindHistory = new RewindHistory();
+	private SimulationClient simulationClient;
+	private final OrbitPredictor orbitPredictor = new OrbitPredictor(() -> Platform.runLater(() -> {
+		if (simulationCanvas != null && simulationTimeline.getStatus() != Status.RUNNING) {
+			drawSimulator();
+		}
+	}));
 
 	private BooleanProperty collisionsProperty = new SimpleBooleanProperty(true);
 	private DoubleProperty deltaTimeProperty = new SimpleDoubleProperty(1.0);
+	private BooleanProperty monitorProperty = new SimpleBooleanProperty(false);
+	private BooleanProperty adaptiveTimeStepProperty = new SimpleBooleanProperty(false);
 	private DoubleProperty zoomProperty = new SimpleDoubleProperty(1.0);
 	private BooleanProperty tailAutoProperty = new SimpleBooleanProperty();
 	private IntegerProperty tailLengthProperty = new SimpleIntegerProperty(0);
@@ -255,7 +305,10 @@ public class PlanetsSimulationApp extends Application {
 	private DoubleProperty simulationTimeProperty = new SimpleDoubleProperty(0);
 	private IntegerProperty simulationPlanetCountProperty = new SimpleIntegerProperty(0);
 	private IntegerProperty simulationWeightlessPlanetCountProperty = new SimpleIntegerProperty(0);
+	private IntegerProperty simulationCollisionCountProperty = new SimpleIntegerProperty(0);
 	private DoubleProperty simulationElapsedTimeProperty = new SimpleDoubleProperty(0);
+	private DoubleProperty simulationEnergyDriftProperty = new SimpleDoubleProperty(0);
+	private StringProperty connectionStatusProperty = new SimpleStringProperty("");
 	
 	private DoubleProperty planetPositionXProperty = new SimpleDoubleProperty();
 	private DoubleProperty planetPositionYProperty = new SimpleDoubleProperty();
@@ -264,6 +317,7 @@ public class PlanetsSimulationApp extends Application {
 	private DoubleProperty planetMassProperty = new SimpleDoubleProperty();
 	private DoubleProperty planetHueProperty = new SimpleDoubleProperty();
 	private BooleanProperty planetOrbitProperty = new SimpleBooleanProperty(true);
+	private BooleanProperty planetPreviewProperty = new SimpleBooleanProperty(true);
 
 	private DoubleProperty planetMinPositionXProperty = new SimpleDoubleProperty(-300);
 	private DoubleProperty planetMinPositionYProperty = new SimpleDoubleProperty(-300);
@@ -279,6 +333,9 @@ public class PlanetsSimulationApp extends Application {
 	
 	private double totalMass;
 
+	private final AdaptiveTimeStep adaptiveTimeStep = new AdaptiveTimeStep(1.0);
+	private boolean adaptiveTimeStepReset = true;
+
 	private double translateX = 0;
 	private double translateY = 0;
 	
@@ -289,21 +346,56 @@ public class PlanetsSimulationApp extends Application {
 	}
 	
 	public void clearPlanets() {
-		simulation.clear();
+		commandQueue.clear();
 		totalMass = 0;
 		simulationStepProperty.set(0);
 		simulationTimeProperty.set(0);
 		simulationPlanetCountProperty.set(0);
 		simulationWeightlessPlanetCountProperty.set(0);
+		simulationCollisionCountProperty.set(0);
+		simulation.getCollisionEvents().setMergeCount(0);
+		simulationEnergyDriftProperty.set(0);
+		adaptiveTimeStepReset = true;
 	}
 	
 	public void addPlanet(Planet planet) {
-		simulation.add(planet);
+		commandQueue.add(planet);
 		totalMass += planet.getMass();
 	}
 	
+	public void addPlanets(Collection<Planet> planets) {
+		commandQueue.addAll(planets);
+		for (Planet planet : planets) {
+			totalMass += planet.getMass();
+		}
+	}
+	
+	public void changeSimulation(Simulation newSimulation) {
+		commandQueue.drainTo(simulation);
+		for (Planet planet : simulation.getPlanets()) {
+			newSimulation.add(planet);
+		}
+		for (Planet planet : simulation.getWeightlessPlanets()) {
+			newSimulation.add(planet);
+		}
+		newSimulation.setCollisions(collisionsProperty.get());
+		newSimulation.getCollisionEvents().setMergeCount(simulation.getCollisionEvents().getMergeCount());
+		simulation = newSimulation;
+		rewindHistory.snapshot(simulation, simulationStepProperty.get(), simulationTimeProperty.get());
+		spatialIndex = new SpatialIndex(newSimulation);
+		selectedPlanet = null;
+		adaptiveTimeStepReset = true;
+		updateOrbitPrediction();
+	}
+	
 	@Override
 	public void start(Stage primaryStage) throws Exception {
+		String connect = getParameters().getNamed().get("connect");
+		if (connect != null) {
+			startClient(primaryStage, connect);
+			return;
+		}
+
         Group root = new Group();
         Scene scene = new Scene(root);
 
@@ -325,6 +417,42 @@ public class PlanetsSimulationApp extends Application {
 		showScenarioChoice();
 	}
 
+	/**
+	 * Starts as viewer of a {@link ch.obermuhlner.planetphysics.remote.SimulationServer}, for example with <code>--connect=localhost:7777</code>.
+	 */
+	private void startClient(Stage primaryStage, String connect) throws IOException {
+		int separator = connect.lastIndexOf(':');
+		simulationClient = new SimulationClient(connect.substring(0, separator), Integer.parseInt(connect.substring(separator + 1)));
+		connectionStatusProperty.set("Connected to " + connect);
+
+        Group root = new Group();
+        Scene scene = new Scene(root);
+
+        BorderPane mainBorderPane = new BorderPane();
+        root.getChildren().add(mainBorderPane);
+
+        mainBorderPane.setTop(createClientToolbar());
+
+        simulationCanvas = createSimulationCanvas();
+		mainBorderPane.setCenter(simulationCanvas);
+		setupSimulationDragging();
+
+		simulationTimeline.setCycleCount(Timeline.INDEFINITE);
+		simulationTimeline.getKeyFrames().add(new KeyFrame(Duration.millis(50), event -> drawSimulator()));
+		simulationTimeline.play();
+
+		primaryStage.setScene(scene);
+        primaryStage.show();
+	}
+
+	@Override
+	public void stop() throws Exception {
+		orbitPredictor.close();
+		if (simulationClient != null) {
+			simulationClient.close();
+		}
+	}
+
 	private void setupSimulationRendering() {
 		drawSimulator();
 		
@@ -363,6 +491,35 @@ public class PlanetsSimulationApp extends Application {
 			addTranslation(deltaX, deltaY);
 			drawSimulator();
 		});
+		simulationCanvas.setOnMouseClicked(event -> {
+			if (event.isStillSincePress()) {
+				selectPlanet(event.getX(), event.getY());
+				drawSimulator();
+			}
+		});
+	}
+
+	private void selectPlanet(double screenX, double screenY) {
+		double zoomFactor = Math.pow(10.0, zoomProperty.get());
+		double x = fromScreenX(screenX);
+		double y = fromScreenY(screenY);
+
+		selectedPlanet = null;
+		for (Planet planet : spatialIndex.findNearest(x, y, 1)) {
+			double pickRadius = (toScreenPixels(planet.getRadius()) / 2 + 4) * zoomFactor;
+			if (planet.getPosition().subtract(Vector2.of(x, y)).getLength() <= pickRadius) {
+				selectedPlanet = planet;
+			}
+		}
+
+		if (selectedPlanet != null) {
+			planetPositionXProperty.set(selectedPlanet.getPosition().x);
+			planetPositionYProperty.set(selectedPlanet.getPosition().y);
+			planetSpeedXProperty.set(selectedPlanet.getSpeed().x);
+			planetSpeedYProperty.set(selectedPlanet.getSpeed().y);
+			planetMassProperty.set(selectedPlanet.getMass());
+			planetHueProperty.set(selectedPlanet.getHue());
+		}
 	}
 
 	private Node createToolbar() {
@@ -381,6 +538,20 @@ public class PlanetsSimulationApp extends Application {
 	        });
         }
         
+        {
+	        VBox box = new VBox(4);
+	        toolbarFlowPane.getChildren().add(box);
+	        
+	        box.getChildren().add(new Label("Engine:"));
+	        ChoiceBox<String> simulationChoiceBox = new ChoiceBox<>();
+	        simulationChoiceBox.getItems().addAll(SIMULATIONS.keySet());
+	        simulationChoiceBox.setValue(simulationChoiceBox.getItems().get(0));
+	        box.getChildren().add(simulationChoiceBox);
+	        simulationChoiceBox.valueProperty().addListener((observable, oldValue, newValue) -> {
+	        	changeSimulation(SIMULATIONS.get(newValue).get());
+	        });
+        }
+        
         {
 	        VBox box = new VBox(4);
 	        toolbarFlowPane.getChildren().add(box);
@@ -408,6 +579,13 @@ public class PlanetsSimulationApp extends Application {
 	        	simulateStep();
 	    		drawSimulator();
 	        });
+
+	        Button rewindButton = new Button("Rewind");
+	        box.getChildren().add(rewindButton);
+	        rewindButton.addEventHandler(ActionEvent.ACTION, event -> {
+	        	rewind(REWIND_STEPS);
+	    		drawSimulator();
+	        });
         }
         
         {
@@ -441,6 +619,22 @@ public class PlanetsSimulationApp extends Application {
 	        CheckBox collisionsCheckBox = new CheckBox("Collisions");
 	        box.getChildren().add(collisionsCheckBox);
 	        Bindings.bindBidirectional(collisionsCheckBox.selectedProperty(), collisionsProperty);
+	        collisionsProperty.addListener((observable, oldValue, newValue) -> {
+	        	simulation.setCollisions(newValue);
+	        });
+
+	        CheckBox monitorCheckBox = new CheckBox("Monitor Energy");
+	        box.getChildren().add(monitorCheckBox);
+	        Bindings.bindBidirectional(monitorCheckBox.selectedProperty(), monitorProperty);
+	        monitorProperty.addListener((observable, oldValue, newValue) -> {
+	        	adaptiveTimeStepReset = true;
+	        });
+
+	        CheckBox adaptiveTimeStepCheckBox = new CheckBox("Adaptive");
+	        box.getChildren().add(adaptiveTimeStepCheckBox);
+	        Bindings.bindBidirectional(adaptiveTimeStepCheckBox.selectedProperty(), adaptiveTimeStepProperty);
+	        adaptiveTimeStepCheckBox.disableProperty().bind(monitorProperty.not());
+	        deltaTimeSlider.disableProperty().bind(monitorProperty.and(adaptiveTimeStepProperty));
         }
 
         {
@@ -492,16 +686,75 @@ public class PlanetsSimulationApp extends Application {
 	        gridPane.add(planetWeightlessCountLabel, 1, rowIndex++);
 	        Bindings.bindBidirectional(planetWeightlessCountLabel.textProperty(), simulationWeightlessPlanetCountProperty, SIMULATION_INTEGER_FORMAT);
 
+	        gridPane.add(new Label("Collisions:"), 0, rowIndex);
+	        Label collisionCountLabel = new Label("0");
+	        gridPane.add(collisionCountLabel, 1, rowIndex++);
+	        Bindings.bindBidirectional(collisionCountLabel.textProperty(), simulationCollisionCountProperty, SIMULATION_INTEGER_FORMAT);
+
 	        gridPane.add(new Label("Elapsed Time [ms]:"), 0, rowIndex);
 	        Label elapsedTimeLabel = new Label("0");
 	        gridPane.add(elapsedTimeLabel, 1, rowIndex++);
 	        Bindings.bindBidirectional(elapsedTimeLabel.textProperty(), simulationElapsedTimeProperty, SIMULATION_TIME_FORMAT);
+
+	        gridPane.add(new Label("Energy Drift:"), 0, rowIndex);
+	        Label energyDriftLabel = new Label("0");
+	        gridPane.add(energyDriftLabel, 1, rowIndex++);
+	        Bindings.bindBidirectional(energyDriftLabel.textProperty(), simulationEnergyDriftProperty, SIMULATION_DRIFT_FORMAT);
+	        energyDriftLabel.disableProperty().bind(monitorProperty.not());
         
         }
 
         return toolbarFlowPane;
 	}
 
+	private Node createClientToolbar() {
+        FlowPane toolbarFlowPane = new FlowPane(Orientation.HORIZONTAL);
+        toolbarFlowPane.setHgap(4);
+        toolbarFlowPane.setVgap(4);
+
+        {
+	        VBox box = new VBox(4);
+	        toolbarFlowPane.getChildren().add(box);
+
+	        box.getChildren().add(new Label("Zoom:"));
+	        Slider zoomSlider = new Slider(-2.0, 2.0, 0.0);
+	        zoomSlider.setShowTickMarks(true);
+	        zoomSlider.setShowTickLabels(true);
+	        zoomSlider.setMajorTickUnit(1.0f);
+	        box.getChildren().add(zoomSlider);
+	        Bindings.bindBidirectional(zoomProperty, zoomSlider.valueProperty());
+        }
+
+        {
+	        GridPane gridPane = new GridPane();
+	        toolbarFlowPane.getChildren().add(gridPane);
+
+	        int rowIndex = 0;
+
+	        gridPane.add(new Label("Simulated Step:"), 0, rowIndex);
+	        Label stepLabel = new Label("0");
+	        gridPane.add(stepLabel, 1, rowIndex++);
+	        Bindings.bindBidirectional(stepLabel.textProperty(), simulationStepProperty, SIMULATION_INTEGER_FORMAT);
+
+	        gridPane.add(new Label("Simulated Time:"), 0, rowIndex);
+	        Label timeLabel = new Label("0");
+	        gridPane.add(timeLabel, 1, rowIndex++);
+	        Bindings.bindBidirectional(timeLabel.textProperty(), simulationTimeProperty, SIMULATION_TIME_FORMAT);
+
+	        gridPane.add(new Label("Visible Planets:"), 0, rowIndex);
+	        Label planetCountLabel = new Label("0");
+	        gridPane.add(planetCountLabel, 1, rowIndex++);
+	        Bindings.bindBidirectional(planetCountLabel.textProperty(), simulationPlanetCountProperty, SIMULATION_INTEGER_FORMAT);
+
+	        gridPane.add(new Label("Connection:"), 0, rowIndex);
+	        Label connectionStatusLabel = new Label();
+	        gridPane.add(connectionStatusLabel, 1, rowIndex++);
+	        connectionStatusLabel.textProperty().bind(connectionStatusProperty);
+        }
+
+        return toolbarFlowPane;
+	}
+
 	private void showScenarioChoice() {
 		Collection<String> scenarioNames = SCENARIOS.keySet();
 		ChoiceDialog<String> scenarioChoiceDialog = new ChoiceDialog<String>(scenarioNames.iterator().next(), scenarioNames);
@@ -513,7 +766,8 @@ public class PlanetsSimulationApp extends Application {
 			zoomProperty.set(0);
 			
 			clearPlanets();
-			SCENARIOS.get(result).get().forEach(planet -> addPlanet(planet));
+			addPlanets(SCENARIOS.get(result).get());
+			applyCommandsIfStopped();
 			drawSimulator();
 		});
 	}
@@ -536,6 +790,7 @@ public class PlanetsSimulationApp extends Application {
     	gridPane.add(clearButton, 0, rowIndex++);
         clearButton.addEventHandler(ActionEvent.ACTION, event -> {
         	clearPlanets();
+        	applyCommandsIfStopped();
         	drawSimulator();
         });
 
@@ -547,7 +802,11 @@ public class PlanetsSimulationApp extends Application {
         addCheckBox(gridPane, rowIndex++, "Orbit", planetOrbitProperty);
     	addTextField(gridPane, rowIndex++, "Speed x", DOUBLE_FORMAT, planetSpeedXProperty, planetMinSpeedXProperty, planetMaxSpeedXProperty);
     	addTextField(gridPane, rowIndex++, "Speed y", DOUBLE_FORMAT, planetSpeedYProperty, planetMinSpeedYProperty, planetMaxSpeedYProperty);
+        addCheckBox(gridPane, rowIndex++, "Preview", planetPreviewProperty);
 
+        for (Property<?> property : Arrays.<Property<?>>asList(planetPositionXProperty, planetPositionYProperty, planetSpeedXProperty, planetSpeedYProperty, planetMassProperty, planetPreviewProperty)) {
+        	property.addListener(observable -> updateOrbitPrediction());
+        }
 
     	Button newButton = new Button("Random");
     	gridPane.add(newButton, 0, rowIndex);
@@ -563,7 +822,7 @@ public class PlanetsSimulationApp extends Application {
         	double mass = planetMassProperty.get();
     		Vector2 speed;
     		if (planetOrbitProperty.get()) {
-    			speed = Vector2.ofPolar(position.getAngle() + Math.PI*0.5, Math.sqrt(BruteForceSimulation.GRAVITY * (mass + totalMass) / position.getLength()));
+    			speed = Vector2.ofPolar(position.getAngle() + Math.PI*0.5, Math.sqrt(simulation.getGravity() * (mass + totalMass) / position.getLength()));
     		} else {
     			speed = Vector2.of(planetSpeedXProperty.get(), planetSpeedYProperty.get());
     		}
@@ -574,6 +833,7 @@ public class PlanetsSimulationApp extends Application {
         			mass,
         			planetHueProperty.get());
         	addPlanet(planet);
+        	applyCommandsIfStopped();
         	drawSimulator();
         });
 
@@ -586,6 +846,7 @@ public class PlanetsSimulationApp extends Application {
         			planetMassProperty.get(),
         			planetHueProperty.get());
         	addPlanet(planet);
+        	applyCommandsIfStopped();
         	drawSimulator();
         });    	
     	
@@ -661,6 +922,11 @@ public class PlanetsSimulationApp extends Application {
 
 		graphics.setFill(Color.BLACK);
 		graphics.fillRect(0, 0, graphics.getCanvas().getWidth(), graphics.getCanvas().getHeight());
+
+		if (simulationClient != null) {
+			drawRemoteFrame(graphics);
+			return;
+		}
 		
 		int tailLength = tailLengthProperty.get();
 		double tailFactor = tailLength == 0 ? 0 : Math.pow(0.05, 1.0 / tailLengthProperty.get());
@@ -671,6 +937,61 @@ public class PlanetsSimulationApp extends Application {
 		for (Planet planet : simulation.getPlanets()) {
 			drawPlanet(graphics, planet, tailLength, tailFactor);
 		}
+
+		double[] orbitPath = orbitPredictor.getPath();
+		if (orbitPath.length >= 4) {
+			double[] screenX = new double[orbitPath.length / 2];
+			double[] screenY = new double[orbitPath.length / 2];
+			for (int i = 0; i < screenX.length; i++) {
+				screenX[i] = toScreenX(orbitPath[i * 2]);
+				screenY[i] = toScreenY(orbitPath[i * 2 + 1]);
+			}
+			graphics.setStroke(Color.hsb(planetHueProperty.get(), 0.5, 1.0));
+			graphics.setLineDashes(4, 4);
+			graphics.strokePolyline(screenX, screenY, screenX.length);
+			graphics.setLineDashes(null);
+		}
+
+		if (selectedPlanet != null && !selectedPlanet.isDeleted()) {
+			double radiusScreenPixels = toScreenPixels(selectedPlanet.getRadius()) / 2 + 4;
+			Vector2 position = selectedPlanet.getPosition();
+			graphics.setStroke(Color.WHITE);
+			graphics.strokeOval(toScreenX(position.x) - radiusScreenPixels, toScreenY(position.y) - radiusScreenPixels, radiusScreenPixels * 2, radiusScreenPixels * 2);
+		}
+	}
+
+	private void drawRemoteFrame(GraphicsContext graphics) {
+		Frame frame;
+		try {
+			double width = simulationCanvas.getWidth();
+			double height = simulationCanvas.getHeight();
+			simulationClient.setViewport(new Viewport(fromScreenX(0), fromScreenY(0), fromScreenX(width), fromScreenY(height), Math.pow(10.0, zoomProperty.get())));
+			frame = simulationClient.getFrame();
+		} catch (IOException e) {
+			simulationTimeline.stop();
+			connectionStatusProperty.set("Connection lost: " + e.getMessage());
+			return;
+		}
+		if (frame == null) {
+			return;
+		}
+
+		for (int i = 0; i < frame.count; i++) {
+			double radiusScreenPixels = toScreenPixels(frame.radius[i]);
+			graphics.setFill(Color.hsb(frame.hue[i], 1.0, 1.0));
+
+			double screenX = toScreenX(frame.x[i])-radiusScreenPixels/2;
+			double screenY = toScreenY(frame.y[i])-radiusScreenPixels/2;
+			graphics.fillOval(screenX, screenY, radiusScreenPixels, radiusScreenPixels);
+
+			if (frame.name[i] != null) {
+				graphics.fillText(frame.name[i], screenX+2+radiusScreenPixels, screenY+2+radiusScreenPixels);
+			}
+		}
+
+		simulationStepProperty.set((int) frame.step);
+		simulationTimeProperty.set(frame.time);
+		simulationPlanetCountProperty.set(frame.count);
 	}
 
 	private void drawPlanet(GraphicsContext graphics, Planet planet, int tailLength, double tailFactor) {
@@ -712,6 +1033,16 @@ public class PlanetsSimulationApp extends Application {
 		return (y + translateY) / zoomFactor + simulationCanvas.getHeight() / 2;
 	}
 
+	private double fromScreenX(double screenX) {
+		double zoomFactor = Math.pow(10.0, zoomProperty.get());
+		return (screenX - simulationCanvas.getWidth() / 2) * zoomFactor - translateX;
+	}
+
+	private double fromScreenY(double screenY) {
+		double zoomFactor = Math.pow(10.0, zoomProperty.get());
+		return (screenY - simulationCanvas.getHeight() / 2) * zoomFactor - translateY;
+	}
+
 	private double toScreenPixels(double x) {
 		return Math.max(x, 1);
 	}
@@ -722,15 +1053,76 @@ public class PlanetsSimulationApp extends Application {
 		translateY += y * zoomFactor;
 	}
 
+	private void updateCollisionCount() {
+		simulationCollisionCountProperty.set((int) simulation.getCollisionEvents().getMergeCount());
+	}
+
+	private void updateOrbitPrediction() {
+		if (planetPreviewProperty.get() && simulationClient == null) {
+			double deltaTime = deltaTimeProperty.get() > 0 ? deltaTimeProperty.get() : 1.0;
+			orbitPredictor.predict(
+					simulation,
+					Vector2.of(planetPositionXProperty.get(), planetPositionYProperty.get()),
+					Vector2.of(planetSpeedXProperty.get(), planetSpeedYProperty.get()),
+					planetMassProperty.get(),
+					deltaTime);
+		} else {
+			orbitPredictor.cancel();
+			if (simulationCanvas != null) {
+				drawSimulator();
+			}
+		}
+	}
+
+	private void applyCommandsIfStopped() {
+		if (simulationTimeline.getStatus() != Status.RUNNING) {
+			applyCommands();
+		}
+	}
+
+	private void applyCommands() {
+		if (commandQueue.drainTo(simulation) > 0) {
+			spatialIndex.invalidate();
+			rewindHistory.snapshot(simulation, simulationStepProperty.get(), simulationTimeProperty.get());
+			updateOrbitPrediction();
+		}
+	}
+
+	private void rewind(int steps) {
+		applyCommands();
+		long step = Math.max(rewindHistory.getOldestStep(), simulationStepProperty.get() - steps);
+		if (step < 0) {
+			return;
+		}
+
+		double time = rewindHistory.seek(simulation, step, tailLengthProperty.get());
+		simulationStepProperty.set((int) step);
+		simulationTimeProperty.set(time);
+		simulationPlanetCountProperty.set(simulation.getPlanets().size());
+		simulationWeightlessPlanetCountProperty.set(simulation.getWeightlessPlanets().size());
+		updateCollisionCount();
+		spatialIndex.invalidate();
+		selectedPlanet = null;
+		adaptiveTimeStepReset = true;
+	}
+
 	private void simulateStep() {
+		applyCommands();
+
 		long startMillis = System.currentTimeMillis();
 		simulation.simulateStep(deltaTimeProperty.get(), tailLengthProperty.get());
 		long endMillis = System.currentTimeMillis();
+		spatialIndex.invalidate();
 		
 		simulationElapsedTimeProperty.set(endMillis - startMillis);
 		
 		simulationStepProperty.set(simulationStepProperty.get() + 1);
 		simulationTimeProperty.set(simulationTimeProperty.get() + deltaTimeProperty.get());
+		rewindHistory.record(simulation, simulationStepProperty.get(), simulationTimeProperty.get(), deltaTimeProperty.get());
+
+		if (monitorProperty.get()) {
+			updateMonitor();
+		}
 		
 		int planetCount = simulation.getPlanets().size();
 		simulationPlanetCountProperty.set(planetCount);
@@ -738,6 +1130,8 @@ public class PlanetsSimulationApp extends Application {
 		int weightlessPlanetCount = simulation.getWeightlessPlanets().size();
 		simulationWeightlessPlanetCountProperty.set(weightlessPlanetCount);
 
+		updateCollisionCount();
+
 		if (tailWeightlessProperty.get()) {
 			planetCount += weightlessPlanetCount;
 		}
@@ -746,6 +1140,20 @@ public class PlanetsSimulationApp extends Application {
 		}
 	}
 
+	private void updateMonitor() {
+		if (adaptiveTimeStepReset) {
+			adaptiveTimeStep.reset(simulation);
+			adaptiveTimeStepReset = false;
+		}
+
+		adaptiveTimeStep.setDeltaTime(deltaTimeProperty.get());
+		double nextDeltaTime = adaptiveTimeStep.update(simulation);
+		if (adaptiveTimeStepProperty.get()) {
+			deltaTimeProperty.set(nextDeltaTime);
+		}
+		simulationEnergyDriftProperty.set(adaptiveTimeStep.getRelativeEnergyDrift());
+	}
+
 	public static void main(String[] args) {
 		launch(args);
 	}
@@ -0,0 +1,115 @@
+package ch.obermuhlner.planetphysics.javafx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+import ch.obermuhlner.planetphysics.BruteForceSimulation;
+import ch.obermuhlner.planetphysics.ConfigurationComparator;
+import ch.obermuhlner.planetphysics.ConfigurationComparator.Configuration;
+import ch.obermuhlner.planetphysics.ConfigurationComparator.Result;
+import ch.obermuhlner.planetphysics.HybridSimulation;
+import ch.obermuhlner.planetphysics.ParticleMeshSimulation;
+import ch.obermuhlner.planetphysics.Planet;
+import ch.obermuhlner.planetphysics.SubsystemSimulation;
+import ch.obermuhlner.planetphysics.WisdomHolmanSimulation;
+
+/**
+ * Compares engines, time steps and opening parameters on a scenario of the {@link PlanetsSimulationApp}
+ * and prints the Pareto frontier of cost against position and energy error.
+ */
+public class ScenarioComparison {
+
+	private static final double[] DELTA_TIMES = { 0.1, 0.2, 0.5, 1.0, 2.0 };
+
+	// the reference error must be small against the error budget of the candidates
+	private static final double REFERENCE_BUDGET_FRACTION = 0.1;
+	private static final int MAX_REFERENCE_HALVINGS = 8;
+
+	/**
+	 * Compares the candidate configurations on a scenario.
+	 *
+	 * Arguments: <code>[scenario] [duration] [maxPositionError] [maxEnergyError] [referenceDeltaTime]</code>
+	 *
+	 * The time step of the brute force reference starts at <code>referenceDeltaTime</code> and is halved
+	 * until halving it changes the result by less than a tenth of the error budget.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		String scenario = args.length > 0 ? args[0] : "Simple Solar System";
+		double duration = args.length > 1 ? Double.parseDouble(args[1]) : 100;
+		double maxPositionError = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+		double maxEnergyError = args.length > 3 ? Double.parseDouble(args[3]) : 1e-4;
+		double referenceDeltaTime = args.length > 4 ? Double.parseDouble(args[4]) : DELTA_TIMES[0] / 10;
+
+		Supplier<List<Planet>> scenarioSupplier = PlanetsSimulationApp.SCENARIOS.get(scenario);
+		if (scenarioSupplier == null) {
+			throw new IllegalArgumentException("Unknown scenario '" + scenario + "', known scenarios: " + PlanetsSimulationApp.SCENARIOS.keySet());
+		}
+		List<Planet> planets = scenarioSupplier.get();
+
+		ConfigurationComparator comparator = new ConfigurationComparator(planets, duration);
+		long startMillis = System.currentTimeMillis();
+		Configuration reference = comparator.convergeReference(
+				deltaTime -> new Configuration("Brute Force dt=" + deltaTime, BruteForceSimulation::new, deltaTime),
+				referenceDeltaTime,
+				maxPositionError * REFERENCE_BUDGET_FRACTION,
+				maxEnergyError * REFERENCE_BUDGET_FRACTION,
+				MAX_REFERENCE_HALVINGS);
+		System.out.println(String.format(Locale.US, "Scenario '%s' with %d planets, simulated time %s, reference %s converged in %d ms",
+				scenario, planets.size(), duration, reference.name, System.currentTimeMillis() - startMillis));
+
+		List<Configuration> candidates = createCandidates();
+		startMillis = System.currentTimeMillis();
+		List<Result> results = comparator.compare(reference, candidates);
+		System.out.println(candidates.size() + " configurations compared in " + (System.currentTimeMillis() - startMillis) + " ms");
+		System.out.println();
+
+		ConfigurationComparator.print(results, System.out);
+		System.out.println();
+
+		System.out.println("Pareto frontier:");
+		for (Result result : ConfigurationComparator.paretoFrontier(results)) {
+			System.out.println("  " + result);
+		}
+		System.out.println();
+
+		Result cheapest = ConfigurationComparator.cheapest(results, maxPositionError, maxEnergyError);
+		String budget = String.format(Locale.US, "position error <= %s, energy error <= %s", maxPositionError, maxEnergyError);
+		if (cheapest == null) {
+			System.out.println("No configuration meets the budget " + budget);
+		} else {
+			System.out.println("Cheapest configuration with " + budget + ":");
+			System.out.println("  " + cheapest);
+		}
+	}
+
+	private static List<Configuration> createCandidates() {
+		List<Configuration> candidates = new ArrayList<>();
+		for (double deltaTime : DELTA_TIMES) {
+			candidates.add(new Configuration("Brute Force dt=" + deltaTime, BruteForceSimulation::new, deltaTime));
+			candidates.add(new Configuration("Wisdom-Holman dt=" + deltaTime, WisdomHolmanSimulation::new, deltaTime));
+			candidates.add(new Configuration("Hybrid dt=" + deltaTime, HybridSimulation::new, deltaTime));
+			for (int gridSize : new int[] { 32, 64 }) {
+				candidates.add(new Configuration("Particle Mesh grid=" + gridSize + " dt=" + deltaTime, () -> {
+					ParticleMeshSimulation simulation = new ParticleMeshSimulation();
+					simulation.setGridSize(gridSize);
+					return simulation;
+				}, deltaTime));
+			}
+			for (double openingFactor : new double[] { 1.5, 3, 6 }) {
+				candidates.add(new Configuration("Subsystems opening=" + openingFactor + " dt=" + deltaTime, () -> {
+					SubsystemSimulation simulation = new SubsystemSimulation();
+					simulation.setOpeningFactor(openingFactor);
+					return simulation;
+				}, deltaTime));
+			}
+		}
+		for (double targetDrift : new double[] { 1e-4, 1e-6 }) {
+			candidates.add(new Configuration("Brute Force adaptive drift=" + targetDrift, BruteForceSimulation::new, 1.0, targetDrift));
+		}
+		return candidates;
+	}
+}
@@ -1,16 +1,35 @@
 package ch.obermuhlner.planetphysics.javafx;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import ch.obermuhlner.planetphysics.Planet;
+import ch.obermuhlner.planetphysics.ScenarioGenerator;
 import ch.obermuhlner.planetphysics.BruteForceSimulation;
-import ch.obermuhlner.planetphysics.math.Vector2;
 
+/**
+ * Creates the planets of the scenarios with a seeded {@link ScenarioGenerator}.
+ *
+ * Must only be used from a single thread.
+ */
 public class ScenarioUtil {
 
+	public static final long DEFAULT_SEED = 1;
+
+	private static ScenarioGenerator generator = new ScenarioGenerator(DEFAULT_SEED);
+
+	/**
+	 * Restarts the random values with the specified seed.
+	 *
+	 * The same seed and the same sequence of calls always create the same planets.
+	 *
+	 * @param seed the seed
+	 */
+	public static void setSeed(long seed) {
+		generator = new ScenarioGenerator(seed);
+	}
+
 	public static double random(double min, double max) {
-		return Math.random() * (max - min) + min;
+		return generator.random(min, max);
 	}
 
 	public static List<Planet> createAsteroids(Planet central, int count, double mass) {
@@ -22,40 +41,18 @@ public class ScenarioUtil {
 	}
 	
 	public static List<Planet> createAsteroids(Planet central, int count, double mass, double minOrbitRadius, double maxOrbitRadius, Double defaultHue) {
-		List<Planet> asteroids = new ArrayList<>();
-		
-		for (int i = 0; i < count; i++) {
-			double orbitRadius = minOrbitRadius + (i + Math.random()) * (maxOrbitRadius - minOrbitRadius) / count;
-			double hue = defaultHue != null ? defaultHue : i * 300.0 / count;
-			asteroids.add(createOrbitingPlanet(central, orbitRadius, mass, hue));
-		}
-		
-		return asteroids;
+		return generator.createAsteroids(BruteForceSimulation.GRAVITY, central, count, mass, minOrbitRadius, maxOrbitRadius, defaultHue);
 	}
 
 	public static Planet createOrbitingPlanet(Planet central, double orbitRadius, double mass, double hue) {
-		double angle = Math.random() * 2*Math.PI;
-		return createOrbitingPlanet(central, orbitRadius, angle, mass, hue);
+		return generator.createOrbitingPlanet(BruteForceSimulation.GRAVITY, central, orbitRadius, mass, hue);
 	}
 	
 	public static Planet createOrbitingPlanet(Planet central, double orbitRadius, double angle, double mass, double hue) {
-		Vector2 position = central.getPosition().add(Vector2.ofPolar(angle, orbitRadius));
-		double orbitSpeed = Math.sqrt(BruteForceSimulation.GRAVITY * (mass + central.getMass()) / orbitRadius);
-		Vector2 speed = central.getSpeed().add(Vector2.ofPolar(angle + Math.PI*0.5, orbitSpeed));
-		return new Planet(position, speed, mass, hue);
+		return ScenarioGenerator.createOrbitingPlanet(BruteForceSimulation.GRAVITY, central, orbitRadius, angle, mass, hue);
 	}
 	
 	public static List<Planet> createRandomPlanets(int count, double maxRadius, double maxSpeed) {
-		List<Planet> planets = new ArrayList<>();
-		
-		for (int i = 0; i < count; i++) {
-			planets.add(new Planet(
-					Vector2.of(random(-maxRadius, maxRadius), random(-maxRadius, maxRadius)),
-					Vector2.of(random(-maxSpeed, maxSpeed), random(-maxSpeed, maxSpeed)),
-					random(0.1, 2),
-					random(0, 360)));
-		}
-		
-		return planets;
+		return generator.createRandomPlanets(count, maxRadius, maxSpeed);
 	}
 }
@@ -0,0 +1,109 @@
+package ch.obermuhlner.planetphysics.math;
+
+import java.util.stream.IntStream;
+
+/**
+ * Radix-2 complex fast fourier transform of a fixed size.
+ */
+public class FastFourierTransform {
+
+	private final int size;
+	private final int[] bitReverse;
+	private final double[] cosTable;
+	private final double[] sinTable;
+
+	public FastFourierTransform(int size) {
+		if (size < 1 || Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("Size must be a power of 2: " + size);
+		}
+		this.size = size;
+
+		int bits = Integer.numberOfTrailingZeros(size);
+		bitReverse = new int[size];
+		for (int i = 0; i < size; i++) {
+			bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
+
+		cosTable = new double[size / 2];
+		sinTable = new double[size / 2];
+		for (int i = 0; i < size / 2; i++) {
+			double angle = 2 * Math.PI * i / size;
+			cosTable[i] = Math.cos(angle);
+			sinTable[i] = Math.sin(angle);
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Transforms a single row or column in place.
+	 *
+	 * The inverse transform is not normalized.
+	 *
+	 * @param real the real parts
+	 * @param imaginary the imaginary parts
+	 * @param offset the index of the first element
+	 * @param stride the distance between two consecutive elements
+	 * @param inverse <code>true</code> to calculate the inverse transform
+	 */
+	public void transform(double[] real, double[] imaginary, int offset, int stride, boolean inverse) {
+		for (int i = 0; i < size; i++) {
+			int j = bitReverse[i];
+			if (j > i) {
+				int indexI = offset + i * stride;
+				int indexJ = offset + j * stride;
+				double tempReal = real[indexI];
+				real[indexI] = real[indexJ];
+				real[indexJ] = tempReal;
+				double tempImaginary = imaginary[indexI];
+				imaginary[indexI] = imaginary[indexJ];
+				imaginary[indexJ] = tempImaginary;
+			}
+		}
+
+		double sign = inverse ? 1.0 : -1.0;
+		for (int length = 2; length <= size; length *= 2) {
+			int halfLength = length / 2;
+			int tableStep = size / length;
+			for (int start = 0; start < size; start += length) {
+				for (int k = 0; k < halfLength; k++) {
+					double cos = cosTable[k * tableStep];
+					double sin = sign * sinTable[k * tableStep];
+					int indexEven = offset + (start + k) * stride;
+					int indexOdd = offset + (start + k + halfLength) * stride;
+					double oddReal = real[indexOdd] * cos - imaginary[indexOdd] * sin;
+					double oddImaginary = real[indexOdd] * sin + imaginary[indexOdd] * cos;
+					real[indexOdd] = real[indexEven] - oddReal;
+					imaginary[indexOdd] = imaginary[indexEven] - oddImaginary;
+					real[indexEven] += oddReal;
+					imaginary[indexEven] += oddImaginary;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Transforms a square grid of <code>size * size</code> elements stored row by row in place.
+	 *
+	 * The rows and then the columns are transformed in parallel.
+	 * The inverse transform is normalized.
+	 *
+	 * @param real the real parts
+	 * @param imaginary the imaginary parts
+	 * @param inverse <code>true</code> to calculate the inverse transform
+	 */
+	public void transform2D(double[] real, double[] imaginary, boolean inverse) {
+		IntStream.range(0, size).parallel().forEach(row -> transform(real, imaginary, row * size, 1, inverse));
+		IntStream.range(0, size).parallel().forEach(column -> transform(real, imaginary, column, size, inverse));
+
+		if (inverse) {
+			double scale = 1.0 / ((double) size * size);
+			for (int i = 0; i < real.length; i++) {
+				real[i] *= scale;
+				imaginary[i] *= scale;
+			}
+		}
+	}
+}
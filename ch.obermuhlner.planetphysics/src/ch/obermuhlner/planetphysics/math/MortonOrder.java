@@ -0,0 +1,136 @@
+package ch.obermuhlner.planetphysics.math;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Sorts points along the Z-order (Morton) curve so that points close in space are close in memory.
+ */
+public class MortonOrder {
+
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+	private static final int KEY_BITS = 32;
+	private static final int MIN_PARALLEL_CHUNK = 16 * 1024;
+
+	/**
+	 * Interleaves the bits of two 16 bit coordinates into a 32 bit Morton key.
+	 *
+	 * @param x the x coordinate, only the lower 16 bits are used
+	 * @param y the y coordinate, only the lower 16 bits are used
+	 * @return the Morton key
+	 */
+	public static int encode(int x, int y) {
+		return spread(x) | (spread(y) << 1);
+	}
+
+	private static int spread(int value) {
+		value &= 0xffff;
+		value = (value | (value << 8)) & 0x00ff00ff;
+		value = (value | (value << 4)) & 0x0f0f0f0f;
+		value = (value | (value << 2)) & 0x33333333;
+		value = (value | (value << 1)) & 0x55555555;
+		return value;
+	}
+
+	/**
+	 * Calculates the permutation that sorts the specified points in Morton order.
+	 *
+	 * The coordinates are read in parallel.
+	 *
+	 * @param x the x coordinate of the point with the specified index
+	 * @param y the y coordinate of the point with the specified index
+	 * @param count the number of points
+	 * @return the indices of the points in Morton order
+	 */
+	public static int[] sortedIndices(IntToDoubleFunction x, IntToDoubleFunction y, int count) {
+		double minX = Double.MAX_VALUE;
+		double minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE;
+		double maxY = -Double.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			double pointX = x.applyAsDouble(i);
+			double pointY = y.applyAsDouble(i);
+			minX = Math.min(minX, pointX);
+			minY = Math.min(minY, pointY);
+			maxX = Math.max(maxX, pointX);
+			maxY = Math.max(maxY, pointY);
+		}
+		double scale = 0xffff / Math.max(Math.max(maxX - minX, maxY - minY), 1e-9);
+		double originX = minX;
+		double originY = minY;
+
+		int[] keys = new int[count];
+		int[] indices = new int[count];
+		IntStream.range(0, count).parallel().forEach(i -> {
+			keys[i] = encode((int) ((x.applyAsDouble(i) - originX) * scale), (int) ((y.applyAsDouble(i) - originY) * scale));
+			indices[i] = i;
+		});
+
+		radixSort(keys, indices, count);
+		return indices;
+	}
+
+	/**
+	 * Sorts the keys as unsigned integers together with their values using a parallel LSD radix sort.
+	 *
+	 * @param keys the keys to sort
+	 * @param values the values to reorder together with the keys
+	 * @param count the number of elements to sort
+	 */
+	public static void radixSort(int[] keys, int[] values, int count) {
+		int chunkCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * 4, count / MIN_PARALLEL_CHUNK));
+		int chunkSize = (count + chunkCount - 1) / chunkCount;
+
+		int[] sourceKeys = keys;
+		int[] sourceValues = values;
+		int[] targetKeys = new int[count];
+		int[] targetValues = new int[count];
+		int[][] offsets = new int[chunkCount][RADIX];
+
+		for (int shift = 0; shift < KEY_BITS; shift += RADIX_BITS) {
+			int digitShift = shift;
+			int[] fromKeys = sourceKeys;
+			int[] fromValues = sourceValues;
+			int[] toKeys = targetKeys;
+			int[] toValues = targetValues;
+
+			IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+				int[] histogram = offsets[chunk];
+				Arrays.fill(histogram, 0);
+				int end = Math.min(count, (chunk + 1) * chunkSize);
+				for (int i = chunk * chunkSize; i < end; i++) {
+					histogram[(fromKeys[i] >>> digitShift) & (RADIX - 1)]++;
+				}
+			});
+
+			int position = 0;
+			for (int digit = 0; digit < RADIX; digit++) {
+				for (int chunk = 0; chunk < chunkCount; chunk++) {
+					int digitCount = offsets[chunk][digit];
+					offsets[chunk][digit] = position;
+					position += digitCount;
+				}
+			}
+
+			IntStream.range(0, chunkCount).parallel().forEach(chunk -> {
+				int[] offset = offsets[chunk];
+				int end = Math.min(count, (chunk + 1) * chunkSize);
+				for (int i = chunk * chunkSize; i < end; i++) {
+					int digit = (fromKeys[i] >>> digitShift) & (RADIX - 1);
+					int target = offset[digit]++;
+					toKeys[target] = fromKeys[i];
+					toValues[target] = fromValues[i];
+				}
+			});
+
+			sourceKeys = toKeys;
+			sourceValues = toValues;
+			targetKeys = fromKeys;
+			targetValues = fromValues;
+		}
+
+		// an even number of passes leaves the sorted result in the original arrays
+	}
+}
@@ -0,0 +1,131 @@
+package ch.obermuhlner.planetphysics.math;
+
+/**
+ * Mutable counterpart of {@link Vector2} for allocation free calculations in the hot loops.
+ * 
+ * All operations modify this vector in place and return it to allow chaining.
+ */
+public class MutableVector2 {
+
+	public double x;
+	public double y;
+
+	public MutableVector2() {
+		this(0, 0);
+	}
+
+	public MutableVector2(double x, double y) {
+		this.x = x;
+		this.y = y;
+	}
+
+	public MutableVector2(Vector2 vector) {
+		this(vector.x, vector.y);
+	}
+
+	public MutableVector2 set(double x, double y) {
+		this.x = x;
+		this.y = y;
+		return this;
+	}
+
+	public MutableVector2 set(Vector2 vector) {
+		return set(vector.x, vector.y);
+	}
+
+	public MutableVector2 setZero() {
+		return set(0, 0);
+	}
+
+	public MutableVector2 add(double x, double y) {
+		this.x += x;
+		this.y += y;
+		return this;
+	}
+
+	public MutableVector2 add(Vector2 vector) {
+		return add(vector.x, vector.y);
+	}
+
+	public MutableVector2 add(MutableVector2 vector) {
+		return add(vector.x, vector.y);
+	}
+
+	/**
+	 * Adds the specified vector multiplied by a scale factor.
+	 * 
+	 * @param x the x value of the vector to add
+	 * @param y the y value of the vector to add
+	 * @param scale the scale factor
+	 * @return this vector
+	 */
+	public MutableVector2 addScaled(double x, double y, double scale) {
+		this.x += x * scale;
+		this.y += y * scale;
+		return this;
+	}
+
+	public MutableVector2 addScaled(Vector2 vector, double scale) {
+		return addScaled(vector.x, vector.y, scale);
+	}
+
+	public MutableVector2 subtract(double x, double y) {
+		this.x -= x;
+		this.y -= y;
+		return this;
+	}
+
+	public MutableVector2 subtract(Vector2 vector) {
+		return subtract(vector.x, vector.y);
+	}
+
+	public MutableVector2 multiply(double value) {
+		x *= value;
+		y *= value;
+		return this;
+	}
+
+	public MutableVector2 divide(double value) {
+		x /= value;
+		y /= value;
+		return this;
+	}
+
+	public MutableVector2 normalize() {
+		return divide(getLength());
+	}
+
+	public double getLength() {
+		return Math.sqrt(getLengthSquared());
+	}
+
+	public double getLengthSquared() {
+		return x*x + y*y;
+	}
+
+	/**
+	 * Returns the squared distance between this vector and the specified point.
+	 * 
+	 * @param x the x value of the point
+	 * @param y the y value of the point
+	 * @return the squared distance
+	 */
+	public double distanceSquared(double x, double y) {
+		double deltaX = this.x - x;
+		double deltaY = this.y - y;
+		return deltaX*deltaX + deltaY*deltaY;
+	}
+
+	public double distanceSquared(Vector2 vector) {
+		return distanceSquared(vector.x, vector.y);
+	}
+
+	public Vector2 toVector2() {
+		return Vector2.of(x, y);
+	}
+
+	@Override
+	public String toString() {
+		return "(" + x + "," + y + ")";
+	}
+}
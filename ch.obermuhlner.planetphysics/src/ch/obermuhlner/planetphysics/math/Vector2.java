@@ -26,6 +26,24 @@ public class Vector2 {
 			this.y + value);
 	}
 	
+	/**
+	 * Adds the specified vector multiplied by a scale factor, allocating only the result.
+	 * 
+	 * @param x the x value of the vector to add
+	 * @param y the y value of the vector to add
+	 * @param scale the scale factor
+	 * @return the resulting vector
+	 */
+	public Vector2 addScaled(double x, double y, double scale) {
+		return of(
+			this.x + x * scale,
+			this.y + y * scale);
+	}
+	
+	public Vector2 addScaled(Vector2 vector, double scale) {
+		return addScaled(vector.x, vector.y, scale);
+	}
+	
 	public Vector2 subtract(Vector2 vector) {
 		return of(
 			this.x - vector.x,
@@ -62,6 +80,23 @@ public class Vector2 {
 		return x*x + y*y;
 	}
 	
+	/**
+	 * Returns the squared distance between this vector and the specified point without creating the difference vector.
+	 * 
+	 * @param x the x value of the point
+	 * @param y the y value of the point
+	 * @return the squared distance
+	 */
+	public double distanceSquared(double x, double y) {
+		double deltaX = this.x - x;
+		double deltaY = this.y - y;
+		return deltaX*deltaX + deltaY*deltaY;
+	}
+	
+	public double distanceSquared(Vector2 vector) {
+		return distanceSquared(vector.x, vector.y);
+	}
+	
 	public double getAngle() {
 		return Math.atan2(y, x);
 	}
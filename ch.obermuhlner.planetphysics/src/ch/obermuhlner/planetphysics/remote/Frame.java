@@ -0,0 +1,27 @@
+package ch.obermuhlner.planetphysics.remote;
+
+/**
+ * Decoded state of the visible planets received by a {@link SimulationClient}.
+ */
+public class Frame {
+
+	public final long step;
+	public final double time;
+	public final int count;
+	public final double[] x;
+	public final double[] y;
+	public final double[] radius;
+	public final double[] hue;
+	public final String[] name;
+
+	Frame(long step, double time, int count, double[] x, double[] y, double[] radius, double[] hue, String[] name) {
+		this.step = step;
+		this.time = time;
+		this.count = count;
+		this.x = x;
+		this.y = y;
+		this.radius = radius;
+		this.hue = hue;
+		this.name = name;
+	}
+}
@@ -0,0 +1,95 @@
+package ch.obermuhlner.planetphysics.remote;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the frames written by {@link FrameEncoder}.
+ */
+class FrameDecoder {
+
+	private long[] previousIds = new long[0];
+	private int[] previousX = new int[0];
+	private int[] previousY = new int[0];
+	private int[] previousRadius = new int[0];
+	private int[] previousHue = new int[0];
+	private String[] previousName = new String[0];
+	private int previousCount;
+
+	Frame decode(VarintBuffer buffer) {
+		int flags = buffer.readByte();
+		boolean keyframe = (flags & FrameEncoder.FLAG_KEYFRAME) != 0;
+		long step = buffer.readVarint();
+		double time = buffer.readDouble();
+		double minX = buffer.readDouble();
+		double minY = buffer.readDouble();
+		double resolution = buffer.readDouble();
+		int count = (int) buffer.readVarint();
+
+		long[] ids = new long[count];
+		int[] quantizedX = new int[count];
+		int[] quantizedY = new int[count];
+		int[] quantizedRadius = new int[count];
+		int[] hue = new int[count];
+		String[] name = new String[count];
+
+		long id = 0;
+		int previousIndex = 0;
+		for (int i = 0; i < count; i++) {
+			id += buffer.readVarint();
+			ids[i] = id;
+			int bodyFlags = buffer.readByte();
+
+			boolean known = false;
+			if (!keyframe) {
+				while (previousIndex < previousCount && previousIds[previousIndex] < id) {
+					previousIndex++;
+				}
+				known = previousIndex < previousCount && previousIds[previousIndex] == id;
+			}
+
+			if ((bodyFlags & FrameEncoder.BODY_DELTA) != 0) {
+				if (!known) {
+					throw new IllegalStateException("Delta for unknown planet " + id);
+				}
+				quantizedX[i] = previousX[previousIndex] + (int) buffer.readZigzag();
+				quantizedY[i] = previousY[previousIndex] + (int) buffer.readZigzag();
+			} else {
+				quantizedX[i] = (int) buffer.readZigzag();
+				quantizedY[i] = (int) buffer.readZigzag();
+			}
+
+			if ((bodyFlags & FrameEncoder.BODY_APPEARANCE) != 0) {
+				quantizedRadius[i] = (int) buffer.readVarint();
+				hue[i] = buffer.readByte();
+				if ((bodyFlags & FrameEncoder.BODY_NAME) != 0) {
+					int length = (int) buffer.readVarint();
+					name[i] = new String(buffer.readBytes(length), StandardCharsets.UTF_8);
+				}
+			} else {
+				quantizedRadius[i] = previousRadius[previousIndex];
+				hue[i] = previousHue[previousIndex];
+				name[i] = previousName[previousIndex];
+			}
+		}
+
+		previousIds = ids;
+		previousX = quantizedX;
+		previousY = quantizedY;
+		previousRadius = quantizedRadius;
+		previousHue = hue;
+		previousName = name;
+		previousCount = count;
+
+		double[] x = new double[count];
+		double[] y = new double[count];
+		double[] radius = new double[count];
+		double[] hueDegrees = new double[count];
+		for (int i = 0; i < count; i++) {
+			x[i] = minX + quantizedX[i] * resolution;
+			y[i] = minY + quantizedY[i] * resolution;
+			radius[i] = quantizedRadius[i] * FrameEncoder.RADIUS_QUANTUM;
+			hueDegrees[i] = hue[i] * 360.0 / 256;
+		}
+		return new Frame(step, time, count, x, y, radius, hueDegrees, name);
+	}
+}
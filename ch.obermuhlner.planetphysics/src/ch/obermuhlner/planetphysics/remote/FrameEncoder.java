@@ -0,0 +1,186 @@
+package ch.obermuhlner.planetphysics.remote;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodes the visible planets of one client into compact frames.
+ *
+ * Positions are quantized to the pixel resolution of the viewport and only one planet (the heaviest) is sent per pixel.
+ * The planets are sorted by id, ids are encoded as differences to the previous id and positions as differences
+ * to the position of the same planet in the previous frame, all as variable length integers.
+ * Radius, hue and name are only sent when a planet appears or its radius changes.
+ *
+ * Frame layout: <code>byte flags, varint step, double time, double minX, double minY, double resolution, varint count,
+ * count * (varint idDelta, byte bodyFlags, zigzag x, zigzag y, [varint radius, byte hue, [varint nameLength, bytes name]])</code>.
+ */
+class FrameEncoder {
+
+	static final int FLAG_KEYFRAME = 1;
+
+	static final int BODY_DELTA = 1;
+	static final int BODY_APPEARANCE = 2;
+	static final int BODY_NAME = 4;
+
+	static final double RADIUS_QUANTUM = 1.0 / 16.0;
+
+	private Viewport previousViewport;
+	private long[] previousIds = new long[0];
+	private int[] previousX = new int[0];
+	private int[] previousY = new int[0];
+	private int[] previousRadius = new int[0];
+	private int previousCount;
+
+	private long[] ids = new long[0];
+	private int[] quantizedX = new int[0];
+	private int[] quantizedY = new int[0];
+	private int[] quantizedRadius = new int[0];
+	private int[] hue = new int[0];
+	private String[] name = new String[0];
+	private int count;
+
+	private final VarintBuffer buffer = new VarintBuffer();
+
+	/**
+	 * Starts a new frame.
+	 *
+	 * @param capacity the maximum number of planets that will be added
+	 */
+	void begin(int capacity) {
+		if (ids.length < capacity || hue.length < capacity) {
+			ids = new long[capacity];
+			quantizedX = new int[capacity];
+			quantizedY = new int[capacity];
+			quantizedRadius = new int[capacity];
+			hue = new int[capacity];
+			name = new String[capacity];
+		}
+		count = 0;
+	}
+
+	/**
+	 * Adds a visible planet.
+	 *
+	 * @param id the id of the planet, between 0 and 2^31
+	 */
+	void add(long id, int x, int y, double radius, double planetHue, String planetName) {
+		ids[count] = id;
+		quantizedX[count] = x;
+		quantizedY[count] = y;
+		quantizedRadius[count] = (int) Math.round(radius / RADIUS_QUANTUM);
+		hue[count] = ((int) Math.round(planetHue * 256 / 360)) & 0xff;
+		name[count] = planetName;
+		count++;
+	}
+
+	/**
+	 * Encodes the added planets.
+	 *
+	 * @return the encoded frame, only valid until the next call
+	 */
+	VarintBuffer encode(long step, double time, Viewport viewport) {
+		sortById();
+
+		boolean keyframe = !viewport.equals(previousViewport);
+		buffer.clear();
+		buffer.writeByte(keyframe ? FLAG_KEYFRAME : 0);
+		buffer.writeVarint(step);
+		buffer.writeDouble(time);
+		buffer.writeDouble(viewport.minX);
+		buffer.writeDouble(viewport.minY);
+		buffer.writeDouble(viewport.resolution);
+		buffer.writeVarint(count);
+
+		long lastId = 0;
+		int previousIndex = 0;
+		for (int i = 0; i < count; i++) {
+			long id = ids[i];
+			while (!keyframe && previousIndex < previousCount && previousIds[previousIndex] < id) {
+				previousIndex++;
+			}
+			boolean known = !keyframe && previousIndex < previousCount && previousIds[previousIndex] == id;
+			boolean appearance = !known || previousRadius[previousIndex] != quantizedRadius[i];
+			boolean hasName = appearance && name[i] != null;
+
+			buffer.writeVarint(id - lastId);
+			lastId = id;
+			buffer.writeByte((known ? BODY_DELTA : 0) | (appearance ? BODY_APPEARANCE : 0) | (hasName ? BODY_NAME : 0));
+			if (known) {
+				buffer.writeZigzag(quantizedX[i] - previousX[previousIndex]);
+				buffer.writeZigzag(quantizedY[i] - previousY[previousIndex]);
+			} else {
+				buffer.writeZigzag(quantizedX[i]);
+				buffer.writeZigzag(quantizedY[i]);
+			}
+			if (appearance) {
+				buffer.writeVarint(quantizedRadius[i]);
+				buffer.writeByte(hue[i]);
+				if (hasName) {
+					byte[] bytes = name[i].getBytes(StandardCharsets.UTF_8);
+					buffer.writeVarint(bytes.length);
+					buffer.writeBytes(bytes);
+				}
+			}
+		}
+
+		swapWithPrevious();
+		previousViewport = viewport;
+		return buffer;
+	}
+
+	private void sortById() {
+		boolean sorted = true;
+		for (int i = 1; i < count && sorted; i++) {
+			sorted = ids[i - 1] < ids[i];
+		}
+		if (sorted) {
+			return;
+		}
+
+		// ids are smaller than 2^31, so id and index fit into one sortable long
+		long[] order = new long[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = (ids[i] << 32) | i;
+		}
+		Arrays.sort(order);
+
+		long[] sortedIds = new long[ids.length];
+		int[] sortedX = new int[ids.length];
+		int[] sortedY = new int[ids.length];
+		int[] sortedRadius = new int[ids.length];
+		int[] sortedHue = new int[ids.length];
+		String[] sortedName = new String[ids.length];
+		for (int i = 0; i < count; i++) {
+			int index = (int) order[i];
+			sortedIds[i] = ids[index];
+			sortedX[i] = quantizedX[index];
+			sortedY[i] = quantizedY[index];
+			sortedRadius[i] = quantizedRadius[index];
+			sortedHue[i] = hue[index];
+			sortedName[i] = name[index];
+		}
+		ids = sortedIds;
+		quantizedX = sortedX;
+		quantizedY = sortedY;
+		quantizedRadius = sortedRadius;
+		hue = sortedHue;
+		name = sortedName;
+	}
+
+	private void swapWithPrevious() {
+		long[] tempIds = previousIds;
+		previousIds = ids;
+		ids = tempIds;
+		int[] tempX = previousX;
+		previousX = quantizedX;
+		quantizedX = tempX;
+		int[] tempY = previousY;
+		previousY = quantizedY;
+		quantizedY = tempY;
+		int[] tempRadius = previousRadius;
+		previousRadius = quantizedRadius;
+		quantizedRadius = tempRadius;
+		previousCount = count;
+		count = 0;
+	}
+}
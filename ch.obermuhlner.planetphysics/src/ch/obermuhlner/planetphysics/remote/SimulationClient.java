@@ -0,0 +1,95 @@
+package ch.obermuhlner.planetphysics.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Receives the frames streamed by a {@link SimulationServer}.
+ *
+ * The frames are decoded in a background thread, {@link #getFrame()} always returns the latest complete frame.
+ */
+public class SimulationClient implements AutoCloseable {
+
+	private final Socket socket;
+	private final DataOutputStream out;
+	private final FrameDecoder decoder = new FrameDecoder();
+
+	private Viewport viewport;
+	private volatile Frame frame;
+	private volatile long receivedBytes;
+	private volatile IOException failure;
+
+	public SimulationClient(String host, int port) throws IOException {
+		socket = new Socket(host, port);
+		socket.setTcpNoDelay(true);
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+		Thread reader = new Thread(() -> readFrames(in), "SimulationClient-reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Sends the visible area to the server, if it changed.
+	 *
+	 * @param newViewport the visible area
+	 * @throws IOException if the viewport could not be sent
+	 */
+	public synchronized void setViewport(Viewport newViewport) throws IOException {
+		if (newViewport.equals(viewport)) {
+			return;
+		}
+		viewport = newViewport;
+		out.writeByte(SimulationServer.VIEWPORT);
+		out.writeDouble(newViewport.minX);
+		out.writeDouble(newViewport.minY);
+		out.writeDouble(newViewport.maxX);
+		out.writeDouble(newViewport.maxY);
+		out.writeDouble(newViewport.resolution);
+		out.flush();
+	}
+
+	/**
+	 * Returns the latest received frame.
+	 *
+	 * @return the latest frame or <code>null</code> if no frame was received yet
+	 * @throws IOException if the connection failed
+	 */
+	public Frame getFrame() throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+		return frame;
+	}
+
+	public long getReceivedBytes() {
+		return receivedBytes;
+	}
+
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+
+	private void readFrames(DataInputStream in) {
+		byte[] bytes = new byte[0];
+		try {
+			while (true) {
+				int length = in.readInt();
+				if (bytes.length < length) {
+					bytes = new byte[Math.max(length, bytes.length * 2)];
+				}
+				in.readFully(bytes, 0, length);
+				receivedBytes += 4 + length;
+				frame = decoder.decode(new VarintBuffer(bytes, length));
+			}
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+}
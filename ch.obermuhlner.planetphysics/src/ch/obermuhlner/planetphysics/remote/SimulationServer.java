@@ -0,0 +1,301 @@
+package ch.obermuhlner.planetphysics.remote;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ch.obermuhlner.planetphysics.BruteForceSimulation;
+import ch.obermuhlner.planetphysics.Planet;
+import ch.obermuhlner.planetphysics.ScenarioGenerator;
+import ch.obermuhlner.planetphysics.Simulation;
+import ch.obermuhlner.planetphysics.SimulationCommandQueue;
+import ch.obermuhlner.planetphysics.SpatialIndex;
+import ch.obermuhlner.planetphysics.math.Vector2;
+
+/**
+ * Runs a {@link Simulation} headless and streams the visible planets to connected {@link SimulationClient}s.
+ *
+ * Every client sends its {@link Viewport}, the server only sends the planets inside it,
+ * quantized to the pixel resolution of the client and delta encoded against the previous frame (see {@link FrameEncoder}).
+ * A new frame is only encoded for a client after the previous one was written,
+ * so slow clients receive fewer frames instead of delaying the simulation.
+ *
+ * Planets are identified by instance, simulations that return new {@link Planet} snapshots on every access
+ * (like {@link ch.obermuhlner.planetphysics.OffHeapSimulation}) are streamed without position deltas.
+ *
+ * Client to server: <code>byte VIEWPORT, double minX, double minY, double maxX, double maxY, double resolution</code>.
+ * Server to client: <code>int length, byte[length] frame</code>.
+ */
+public class SimulationServer implements AutoCloseable {
+
+	static final byte VIEWPORT = 1;
+
+	private final Simulation simulation;
+	private final ServerSocket serverSocket;
+	private final SpatialIndex spatialIndex;
+	private final SimulationCommandQueue commandQueue = new SimulationCommandQueue();
+	private final List<ClientConnection> clients = new CopyOnWriteArrayList<>();
+
+	private final Map<Planet, Long> ids = new WeakHashMap<>();
+	private long nextId;
+
+	private volatile boolean running;
+	private volatile double deltaTime = 1.0;
+	private volatile int maxFramesPerSecond = 30;
+
+	public SimulationServer(Simulation simulation, int port) throws IOException {
+		this.simulation = simulation;
+		this.serverSocket = new ServerSocket(port);
+		this.spatialIndex = new SpatialIndex(simulation);
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Returns the queue for modifications of the simulation, they are applied between two steps.
+	 *
+	 * @return the command queue
+	 */
+	public SimulationCommandQueue getCommandQueue() {
+		return commandQueue;
+	}
+
+	public void setDeltaTime(double deltaTime) {
+		this.deltaTime = deltaTime;
+	}
+
+	public void setMaxFramesPerSecond(int maxFramesPerSecond) {
+		this.maxFramesPerSecond = maxFramesPerSecond;
+	}
+
+	/**
+	 * Starts the simulation thread and accepts clients.
+	 */
+	public void start() {
+		running = true;
+
+		Thread acceptThread = new Thread(this::acceptClients, "SimulationServer-accept");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+
+		Thread simulationThread = new Thread(this::runSimulation, "SimulationServer-simulation");
+		simulationThread.start();
+	}
+
+	@Override
+	public void close() throws IOException {
+		running = false;
+		serverSocket.close();
+		for (ClientConnection client : clients) {
+			client.close();
+		}
+	}
+
+	private void acceptClients() {
+		while (running) {
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException e) {
+				// server socket closed, or the connection was aborted before it was accepted
+				continue;
+			}
+			try {
+				ClientConnection client = new ClientConnection(socket);
+				clients.add(client);
+				client.start();
+			} catch (IOException e) {
+				// the client disconnected during the setup, it has to connect again
+				try {
+					socket.close();
+				} catch (IOException ignored) {
+					// ignore
+				}
+			}
+		}
+	}
+
+	private void runSimulation() {
+		long step = 0;
+		double time = 0;
+		long nextFrameNanos = 0;
+		while (running) {
+			if (commandQueue.drainTo(simulation) > 0) {
+				spatialIndex.invalidate();
+			}
+
+			double stepDeltaTime = deltaTime;
+			simulation.simulateStep(stepDeltaTime, 0);
+			spatialIndex.invalidate();
+			step++;
+			time += stepDeltaTime;
+
+			long now = System.nanoTime();
+			if (now - nextFrameNanos >= 0) {
+				for (ClientConnection client : clients) {
+					if (client.isReadyForFrame()) {
+						client.sendFrame(step, time);
+					}
+				}
+				nextFrameNanos = now + 1_000_000_000L / maxFramesPerSecond;
+			}
+		}
+	}
+
+	private long getId(Planet planet) {
+		Long id = ids.get(planet);
+		if (id == null) {
+			id = nextId++ & Integer.MAX_VALUE;
+			ids.put(planet, id);
+		}
+		return id;
+	}
+
+	private class ClientConnection {
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+		private final FrameEncoder encoder = new FrameEncoder();
+		private final BlockingQueue<byte[]> frames = new ArrayBlockingQueue<>(1);
+		private volatile Viewport viewport;
+		private volatile boolean writing;
+
+		ClientConnection(Socket socket) throws IOException {
+			this.socket = socket;
+			socket.setTcpNoDelay(true);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+		}
+
+		void start() {
+			Thread reader = new Thread(this::readRequests, "SimulationServer-reader");
+			reader.setDaemon(true);
+			reader.start();
+			Thread writer = new Thread(this::writeFrames, "SimulationServer-writer");
+			writer.setDaemon(true);
+			writer.start();
+		}
+
+		boolean isReadyForFrame() {
+			return viewport != null && frames.isEmpty() && !writing;
+		}
+
+		/**
+		 * Encodes the visible planets, called by the simulation thread.
+		 */
+		void sendFrame(long step, double time) {
+			Viewport frameViewport = viewport;
+			double centerX = (frameViewport.minX + frameViewport.maxX) / 2;
+			double centerY = (frameViewport.minY + frameViewport.maxY) / 2;
+			double halfDiagonal = Math.hypot(frameViewport.maxX - frameViewport.minX, frameViewport.maxY - frameViewport.minY) / 2;
+
+			// one planet per pixel, the heaviest wins
+			Map<Long, Planet> pixels = new HashMap<>();
+			for (Planet planet : spatialIndex.findWithinRadius(centerX, centerY, halfDiagonal)) {
+				Vector2 position = planet.getPosition();
+				if (frameViewport.contains(position.x, position.y, 0)) {
+					long pixel = ((long) quantizeX(frameViewport, position.x) << 32) ^ (quantizeY(frameViewport, position.y) & 0xffffffffL);
+					Planet existing = pixels.get(pixel);
+					if (existing == null || existing.getMass() < planet.getMass()) {
+						pixels.put(pixel, planet);
+					}
+				}
+			}
+
+			encoder.begin(pixels.size());
+			for (Planet planet : pixels.values()) {
+				Vector2 position = planet.getPosition();
+				encoder.add(
+						getId(planet),
+						quantizeX(frameViewport, position.x),
+						quantizeY(frameViewport, position.y),
+						planet.getRadius(),
+						planet.getHue(),
+						planet.getName());
+			}
+			// only this thread adds frames and only to an empty queue, so no encoded frame is ever dropped
+			frames.add(encoder.encode(step, time, frameViewport).toByteArray());
+		}
+
+		private int quantizeX(Viewport viewport, double x) {
+			return (int) Math.round((x - viewport.minX) / viewport.resolution);
+		}
+
+		private int quantizeY(Viewport viewport, double y) {
+			return (int) Math.round((y - viewport.minY) / viewport.resolution);
+		}
+
+		private void readRequests() {
+			try {
+				while (true) {
+					byte request = in.readByte();
+					if (request != VIEWPORT) {
+						throw new IOException("Unknown request: " + request);
+					}
+					viewport = new Viewport(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+				}
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		private void writeFrames() {
+			try {
+				while (true) {
+					byte[] frame = frames.take();
+					writing = true;
+					out.writeInt(frame.length);
+					out.write(frame);
+					out.flush();
+					writing = false;
+				}
+			} catch (IOException | InterruptedException e) {
+				close();
+			}
+		}
+
+		void close() {
+			clients.remove(this);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	/**
+	 * Starts a server with a central planet and weightless asteroids.
+	 *
+	 * Arguments: <code>[port] [asteroidCount]</code>
+	 *
+	 * @param args the command line arguments
+	 * @throws IOException if the server could not be started
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 7777;
+		int asteroidCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+
+		BruteForceSimulation simulation = new BruteForceSimulation();
+		Planet central = new Planet("Sun", Vector2.of(0, 0), Vector2.of(0, 0), 1000.0, 60.0);
+		simulation.add(central);
+		new ScenarioGenerator(1).addAsteroids(simulation, central, asteroidCount, 0.0, 100, 3000, null);
+
+		SimulationServer server = new SimulationServer(simulation, port);
+		server.start();
+		System.out.println("Simulation server listening on port " + server.getPort());
+	}
+}
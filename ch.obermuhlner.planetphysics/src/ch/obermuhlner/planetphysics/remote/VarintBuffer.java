@@ -0,0 +1,115 @@
+package ch.obermuhlner.planetphysics.remote;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer with variable length integer encoding.
+ */
+class VarintBuffer {
+
+	private byte[] bytes;
+	private int size;
+	private int position;
+
+	VarintBuffer() {
+		this(new byte[1024], 0);
+	}
+
+	VarintBuffer(byte[] bytes, int size) {
+		this.bytes = bytes;
+		this.size = size;
+	}
+
+	void clear() {
+		size = 0;
+		position = 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void writeTo(OutputStream out) throws IOException {
+		out.write(bytes, 0, size);
+	}
+
+	byte[] toByteArray() {
+		return Arrays.copyOf(bytes, size);
+	}
+
+	private void ensureCapacity(int additional) {
+		if (size + additional > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+		}
+	}
+
+	void writeByte(int value) {
+		ensureCapacity(1);
+		bytes[size++] = (byte) value;
+	}
+
+	void writeBytes(byte[] values) {
+		ensureCapacity(values.length);
+		System.arraycopy(values, 0, bytes, size, values.length);
+		size += values.length;
+	}
+
+	void writeVarint(long value) {
+		ensureCapacity(10);
+		while ((value & ~0x7fL) != 0) {
+			bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		bytes[size++] = (byte) value;
+	}
+
+	void writeZigzag(long value) {
+		writeVarint((value << 1) ^ (value >> 63));
+	}
+
+	void writeDouble(double value) {
+		long bits = Double.doubleToRawLongBits(value);
+		ensureCapacity(8);
+		for (int i = 0; i < 8; i++) {
+			bytes[size++] = (byte) (bits >>> (i * 8));
+		}
+	}
+
+	int readByte() {
+		return bytes[position++] & 0xff;
+	}
+
+	byte[] readBytes(int length) {
+		byte[] result = Arrays.copyOfRange(bytes, position, position + length);
+		position += length;
+		return result;
+	}
+
+	long readVarint() {
+		long value = 0;
+		int shift = 0;
+		while (true) {
+			int b = bytes[position++];
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+			shift += 7;
+		}
+	}
+
+	long readZigzag() {
+		long value = readVarint();
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	double readDouble() {
+		long bits = 0;
+		for (int i = 0; i < 8; i++) {
+			bits |= (long) (bytes[position++] & 0xff) << (i * 8);
+		}
+		return Double.longBitsToDouble(bits);
+	}
+}
@@ -0,0 +1,47 @@
+package ch.obermuhlner.planetphysics.remote;
+
+/**
+ * Visible area of a viewer in simulation coordinates.
+ *
+ * The resolution is the size of a screen pixel in simulation units,
+ * positions are quantized to this resolution before they are sent.
+ */
+public class Viewport {
+
+	public final double minX;
+	public final double minY;
+	public final double maxX;
+	public final double maxY;
+	public final double resolution;
+
+	public Viewport(double minX, double minY, double maxX, double maxY, double resolution) {
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.resolution = resolution;
+	}
+
+	public boolean contains(double x, double y, double margin) {
+		return x >= minX - margin && x <= maxX + margin && y >= minY - margin && y <= maxY + margin;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Viewport)) {
+			return false;
+		}
+		Viewport other = (Viewport) obj;
+		return minX == other.minX && minY == other.minY && maxX == other.maxX && maxY == other.maxY && resolution == other.resolution;
+	}
+
+	@Override
+	public int hashCode() {
+		return Double.hashCode(minX) * 31 + Double.hashCode(minY) * 17 + Double.hashCode(resolution);
+	}
+
+	@Override
+	public String toString() {
+		return "Viewport(" + minX + ", " + minY + ", " + maxX + ", " + maxY + ", " + resolution + ")";
+	}
+}